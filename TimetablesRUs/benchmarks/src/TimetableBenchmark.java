@@ -0,0 +1,240 @@
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Random;
+
+/**
+ * Benchmarks the main Timetable operations on generated timetables of increasing size.
+ *
+ * JMH refuses benchmark classes in the default package, which is where the timetable
+ * classes live, so this is a small harness in the same spirit: each benchmark is warmed
+ * up, then timed over several iterations, and the heap allocated and garbage collections
+ * run while measuring are reported per operation.
+ *
+ * Usage: java TimetableBenchmark [event count ...]
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int LOOKUPS = 100000;
+
+    // Results are folded in here so that the JIT cannot discard the work
+    private static volatile int sink;
+
+    /**
+     * One timed invocation of a benchmark
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1000, 10000, 100000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.printf("%-16s %10s %12s %12s %10s %14s %6s %8s%n",
+                "benchmark", "events", "ms/iter", "ns/op", "MB/s", "alloc B/op", "gcs", "gc ms");
+        for (int size : sizes) {
+            run(size);
+        }
+    }
+
+    private static void run(int size) throws Exception {
+        final Timetable timetable = TimetableGenerator.generate(size, 42);
+        final Venue[] venues = timetable.obtainAllVenues();
+
+        final File text = File.createTempFile("timetable", ".txt");
+        final File snapshot = File.createTempFile("timetable", ".bin");
+        text.deleteOnExit();
+        snapshot.deleteOnExit();
+        timetable.save(text.getPath());
+        timetable.saveBinary(snapshot.getPath());
+
+        measure("load text", size, 1, text.length(), new Operation() {
+            public Object run() throws Exception {
+                Timetable loaded = new Timetable();
+                loaded.load(text.getPath());
+                return loaded;
+            }
+        });
+        measure("load parallel", size, 1, text.length(), new Operation() {
+            public Object run() throws Exception {
+                Timetable loaded = new Timetable();
+                loaded.loadParallel(text.getPath());
+                return loaded;
+            }
+        });
+        measure("load binary", size, 1, snapshot.length(), new Operation() {
+            public Object run() throws Exception {
+                Timetable loaded = new Timetable();
+                loaded.load(snapshot.getPath());
+                return loaded;
+            }
+        });
+        measure("save text", size, 1, 0, new Operation() {
+            public Object run() throws Exception {
+                timetable.save(text.getPath());
+                return text;
+            }
+        });
+        measure("save binary", size, 1, 0, new Operation() {
+            public Object run() throws Exception {
+                timetable.saveBinary(snapshot.getPath());
+                return snapshot;
+            }
+        });
+        // The events are kept in display order, so walking them in that order, as printing
+        // does, no longer needs a sort first
+        measure("display order", size, size, 0, new Operation() {
+            public Object run() {
+                int ids = 0;
+                for (Event event : timetable.viewAllEvents()) {
+                    ids += event.getEventId();
+                }
+                return ids;
+            }
+        });
+
+        final Random random = new Random(7);
+        final int[] ids = new int[LOOKUPS];
+        final String[] names = new String[LOOKUPS];
+        final Venue[] clashVenues = new Venue[LOOKUPS];
+        final LocalDateTime[] clashTimes = new LocalDateTime[LOOKUPS];
+        LocalDateTime first = LocalDateTime.of(2020, 9, 28, 9, 0);
+        int slots = Math.max(1, size / venues.length);
+        for (int i = 0; i < LOOKUPS; i++) {
+            ids[i] = random.nextInt(size * 2);
+            names[i] = venues[random.nextInt(venues.length)].getName();
+            clashVenues[i] = venues[random.nextInt(venues.length)];
+            clashTimes[i] = first.plusMinutes(random.nextInt(slots * 90));
+        }
+
+        measure("searchForEvent", size, LOOKUPS, 0, new Operation() {
+            public Object run() {
+                int found = 0;
+                for (int id : ids) {
+                    if (timetable.searchForEvent(id) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+        measure("searchForVenue", size, LOOKUPS, 0, new Operation() {
+            public Object run() {
+                int found = 0;
+                for (String name : names) {
+                    if (timetable.searchForVenue(name) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+        measure("clash check", size, LOOKUPS, 0, new Operation() {
+            public Object run() {
+                int free = 0;
+                for (int i = 0; i < LOOKUPS; i++) {
+                    if (timetable.isVenueFree(clashVenues[i], clashTimes[i], clashTimes[i].plusMinutes(30))) {
+                        free++;
+                    }
+                }
+                return free;
+            }
+        });
+
+        // Booked minutes per venue over the whole timetable, from the events themselves
+        // and then from the columnar copy. Both index the totals by venue ID, so the
+        // difference is only in how the events are walked
+        measure("build columns", size, size, 0, new Operation() {
+            public Object run() {
+                return new EventColumns(timetable);
+            }
+        });
+        measure("scan objects", size, size, 0, new Operation() {
+            public Object run() {
+                long[] minutes = new long[timetable.venueIdLimit()];
+                for (Event event : timetable.viewAllEvents()) {
+                    if (event.getVenue() != null) {
+                        minutes[timetable.venueId(event.getVenue())] +=
+                                ChronoUnit.MINUTES.between(event.getStartTime(), event.getEndTime());
+                    }
+                }
+                return minutes;
+            }
+        });
+        final EventColumns columns = timetable.obtainColumns();
+        measure("scan columns", size, size, 0, new Operation() {
+            public Object run() {
+                return columns.bookedMinutesByVenue(LocalDateTime.MIN, LocalDateTime.MAX);
+            }
+        });
+        measure("utilisation", size, size, 0, new Operation() {
+            public Object run() {
+                return new UtilisationReport(timetable, LocalTime.of(9, 0), LocalTime.of(18, 0),
+                        UtilisationReport.WEEKDAYS);
+            }
+        });
+        System.out.println();
+    }
+
+    /*
+     * Warms up and then times a benchmark, printing one line of results
+     */
+    private static void measure(String name, int size, int operations, long bytes, Operation operation)
+            throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            consume(operation.run());
+        }
+        System.gc();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            consume(operation.run());
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        long totalOperations = (long) operations * MEASURED_ITERATIONS;
+        double seconds = elapsed / 1e9;
+        System.out.printf("%-16s %10d %12.2f %12.1f %10s %14d %6d %8d%n", name, size,
+                elapsed / 1e6 / MEASURED_ITERATIONS, (double) elapsed / totalOperations,
+                bytes > 0 ? String.format("%.1f", bytes * MEASURED_ITERATIONS / seconds / (1 << 20)) : "-",
+                allocated / totalOperations, gcCount() - gcCount, gcTime() - gcTime);
+    }
+
+    private static void consume(Object result) {
+        sink += System.identityHashCode(result);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,69 @@
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Builds synthetic timetables of any size, from a thousand to tens of millions of events,
+ * for the benchmarks. Events are spread evenly over the venues in back-to-back slots so
+ * that none clash, and only ask for facilities their venue has. Each venue has its own
+ * lecturer and organiser, so no one is booked into two places at once.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableGenerator {
+    private static final LocalDateTime TERM_START = LocalDateTime.of(2020, 9, 28, 9, 0);
+    private static final int SLOT_MINUTES = 90;
+    private static final int EVENTS_PER_VENUE = 500;
+    private static final String[] ORGANISERS = {"cwl", "afc", "nst", "rcc", "ekf", "mjn"};
+    private static final String[] LECTURERS = {"Chris Loftus", "Neal Snooke", "Fred Labrosse", "Elio Tuci"};
+
+    private TimetableGenerator() {
+    }
+
+    /**
+     * Returns the number of venues generated for a timetable of the given size
+     * @param eventCount the number of events
+     * @return the number of venues
+     */
+    public static int venueCount(int eventCount) {
+        return Math.max(10, eventCount / EVENTS_PER_VENUE);
+    }
+
+    /**
+     * Generates a timetable
+     * @param eventCount the number of events
+     * @param seed the random seed, so runs can be repeated
+     * @return the timetable
+     */
+    public static Timetable generate(int eventCount, long seed) {
+        Random random = new Random(seed);
+        Timetable timetable = new Timetable();
+        Venue[] venues = new Venue[venueCount(eventCount)];
+        for (int i = 0; i < venues.length; i++) {
+            Venue venue = new Venue(String.format("%s%d", (char) ('A' + i % 26), i));
+            venue.setHasDataProjector(random.nextInt(4) != 0);
+            venue.setHasAdjustibleSeating(random.nextInt(3) == 0);
+            venues[i] = venue;
+            timetable.add(venue);
+        }
+
+        for (int i = 0; i < eventCount; i++) {
+            int room = i % venues.length;
+            Venue venue = venues[room];
+            LocalDateTime start = TERM_START.plusMinutes((long) (i / venues.length) * SLOT_MINUTES);
+            Event event;
+            if (random.nextInt(3) == 0) {
+                MeetingType[] types = MeetingType.values();
+                event = new Meeting(i, "Meeting " + random.nextInt(1000), ORGANISERS[room % ORGANISERS.length] + room,
+                        types[random.nextInt(types.length)]);
+            } else {
+                event = new Lecture(i, "CS" + (10000 + random.nextInt(500)), LECTURERS[room % LECTURERS.length], room,
+                        venue.HasAdjustableSeating() && random.nextBoolean());
+            }
+            event.setStartAndEndTime(start, start.plusMinutes(60));
+            event.setDataProjectorRequired(venue.hasDataProjector() && random.nextBoolean());
+            event.setVenue(venue);
+            timetable.add(event);
+        }
+        return timetable;
+    }
+}
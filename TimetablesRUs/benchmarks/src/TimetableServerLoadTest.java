@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load tests TimetableServer at a fixed request rate and reports the latency percentiles.
+ *
+ * The test is open loop: request k is due at start + k / rate whether or not earlier
+ * requests have been answered, and its latency is measured from when it was due rather
+ * than from when a client thread got round to sending it. A slow server therefore shows
+ * up as queueing in the percentiles instead of quietly lowering the rate. The requests
+ * are 60% event lookups, 30% a venue's events for a day and 10% free venues for an hour.
+ *
+ * Usage: java TimetableServerLoadTest [requests per second] [seconds] [client threads]
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableServerLoadTest {
+    private static final int EVENTS = 100000;
+    private static final int WARMUP_SECONDS = 2;
+    private static final LocalDateTime TERM_START = LocalDateTime.of(2020, 9, 28, 9, 0);
+    private static final int TERM_DAYS = 35;
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        Timetable timetable = TimetableGenerator.generate(EVENTS, 42);
+        String[] venues = new String[timetable.obtainAllVenues().length];
+        for (int i = 0; i < venues.length; i++) {
+            venues[i] = URLEncoder.encode(timetable.obtainAllVenues()[i].getName(), "UTF-8");
+        }
+        TimetableServer server = new TimetableServer(new ConcurrentTimetable(timetable), 0);
+        server.start();
+        String base = "http://localhost:" + server.getPort();
+        try {
+            String[] paths = paths(EVENTS, venues, rate * WARMUP_SECONDS, 1);
+            run(base, paths, rate, threads);
+            System.out.printf("%d events, %d venues, %d client threads%n", EVENTS, venues.length, threads);
+            paths = paths(EVENTS, venues, rate * seconds, 2);
+            long started = System.nanoTime();
+            Result result = run(base, paths, rate, threads);
+            double elapsed = (System.nanoTime() - started) / 1e9;
+            report(rate, paths.length / elapsed, result);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /*
+     * The requests to send, chosen up front so that building them is not timed
+     */
+    private static String[] paths(int events, String[] venues, int count, long seed) {
+        Random random = new Random(seed);
+        String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(10);
+            LocalDateTime day = TERM_START.plusDays(random.nextInt(TERM_DAYS));
+            if (kind < 6) {
+                paths[i] = "/events/" + random.nextInt(events);
+            } else if (kind < 9) {
+                paths[i] = "/venues/" + venues[random.nextInt(venues.length)] + "/events?from=" + day +
+                        "&to=" + day.plusHours(9);
+            } else {
+                LocalDateTime from = day.plusHours(random.nextInt(9));
+                paths[i] = "/free?from=" + from + "&to=" + from.plusHours(1) +
+                        (random.nextBoolean() ? "&projector=true" : "");
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * The latencies of one run, in nanoseconds, and how many requests failed
+     */
+    private static class Result {
+        long[] latencies;
+        AtomicInteger errors = new AtomicInteger();
+    }
+
+    private static Result run(final String base, final String[] paths, int rate, int threads)
+            throws InterruptedException {
+        final Result result = new Result();
+        result.latencies = new long[paths.length];
+        final AtomicInteger next = new AtomicInteger();
+        final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        Thread[] clients = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            clients[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int k;
+                    while ((k = next.getAndIncrement()) < paths.length) {
+                        long due = start + k * interval;
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        if (!send(base + paths[k])) {
+                            result.errors.incrementAndGet();
+                        }
+                        result.latencies[k] = System.nanoTime() - due;
+                    }
+                }
+            });
+            clients[t].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return result;
+    }
+
+    /*
+     * Sends one request and reads the whole response, leaving the connection open for
+     * the next request from this thread
+     */
+    private static boolean send(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            byte[] buffer = new byte[8192];
+            while (in != null && in.read(buffer) >= 0) {
+                // Drain the body so the connection can be reused
+            }
+            if (in != null) {
+                in.close();
+            }
+            return status == 200 || status == 404;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void report(int rate, double achieved, Result result) {
+        long[] latencies = result.latencies;
+        Arrays.sort(latencies);
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s%n",
+                "target/s", "achieved/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        System.out.printf("%-10d %10.0f %10.2f %10.2f %10.2f %10.2f %10d%n", rate, achieved,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                latencies[latencies.length - 1] / 1e6, result.errors.get());
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Writes venues and events as JSON straight to a Writer, a field at a time, so that a
+ * response is never built up as one String
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableJson {
+    private TimetableJson() {
+    }
+
+    /**
+     * Writes a venue as an object with its name and facilities
+     * @param out the writer
+     * @param venue the venue
+     * @throws IOException thrown if the writer fails
+     */
+    public static void writeVenue(Writer out, Venue venue) throws IOException {
+        out.write("{\"name\":");
+        writeString(out, venue.getName());
+        out.write(",\"projector\":");
+        out.write(String.valueOf(venue.has(Facility.DATA_PROJECTOR)));
+        out.write(",\"seating\":");
+        out.write(String.valueOf(venue.has(Facility.ADJUSTABLE_SEATING)));
+        out.write('}');
+    }
+
+    /**
+     * Writes an event as an object. Meetings and lectures have their own fields after the
+     * common ones, and a recurring event has its recurrence
+     * @param out the writer
+     * @param event the event
+     * @throws IOException thrown if the writer fails
+     */
+    public static void writeEvent(Writer out, Event event) throws IOException {
+        out.write("{\"id\":");
+        out.write(String.valueOf(event.getEventId()));
+        out.write(",\"type\":");
+        out.write(event instanceof Lecture ? "\"lecture\"" : "\"meeting\"");
+        out.write(",\"start\":");
+        writeTime(out, event.getStartTime());
+        out.write(",\"end\":");
+        writeTime(out, event.getEndTime());
+        out.write(",\"venue\":");
+        writeString(out, event.getVenue() == null ? null : event.getVenue().getName());
+        out.write(",\"projector\":");
+        out.write(String.valueOf(event.requires(Facility.DATA_PROJECTOR)));
+        out.write(",\"seating\":");
+        out.write(String.valueOf(event.requires(Facility.ADJUSTABLE_SEATING)));
+        if (event instanceof Lecture) {
+            Lecture lecture = (Lecture) event;
+            out.write(",\"module\":");
+            writeString(out, lecture.getModuleCode());
+            out.write(",\"lecturer\":");
+            writeString(out, lecture.getLecturerName());
+            out.write(",\"lecturerNumber\":");
+            out.write(String.valueOf(lecture.getLecturerNumber()));
+        } else if (event instanceof Meeting) {
+            Meeting meeting = (Meeting) event;
+            out.write(",\"name\":");
+            writeString(out, meeting.getMeetingName());
+            out.write(",\"organiser\":");
+            writeString(out, meeting.getOrganiser());
+            out.write(",\"meetingType\":");
+            writeString(out, meeting.getMeetingType() == null ? null : meeting.getMeetingType().name());
+        }
+        Recurrence recurrence = event.getRecurrence();
+        if (recurrence != null) {
+            out.write(",\"recurrence\":{\"intervalWeeks\":");
+            out.write(String.valueOf(recurrence.getIntervalWeeks()));
+            out.write(",\"count\":");
+            out.write(String.valueOf(recurrence.getCount()));
+            out.write(",\"exceptions\":[");
+            boolean first = true;
+            for (LocalDate date : recurrence.getExceptions()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeString(out, date.toString());
+            }
+            out.write("]}");
+        }
+        out.write('}');
+    }
+
+    /**
+     * Writes an error as an object with a message
+     * @param out the writer
+     * @param message the message
+     * @throws IOException thrown if the writer fails
+     */
+    public static void writeError(Writer out, String message) throws IOException {
+        out.write("{\"error\":");
+        writeString(out, message);
+        out.write('}');
+    }
+
+    private static void writeTime(Writer out, LocalDateTime time) throws IOException {
+        writeString(out, time == null ? null : time.toString());
+    }
+
+    /**
+     * Writes a string as a JSON string, or null
+     * @param out the writer
+     * @param value the string, may be null
+     * @throws IOException thrown if the writer fails
+     */
+    public static void writeString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,363 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves timetable lookups over HTTP as JSON, so that other systems need not read the
+ * timetable file themselves. Requests are answered from a ConcurrentTimetable, each on
+ * its own virtual thread where the JVM has them (Java 21 on) and otherwise on a cached
+ * pool of threads. Responses are written to the connection as they are produced, in
+ * chunks, rather than built up whole first.
+ *
+ *   GET /events/ID                         the event with that ID
+ *   GET /venues                            every venue
+ *   GET /venues/NAME/events?from=T&to=T    the venue's events overlapping the range
+ *   GET /free?from=T&to=T[&projector=true][&seating=true]
+ *                                          the venues with those facilities free for the range
+ *
+ * Times are written as 2020-09-28T09:00. A bad request gets a 400 and an unknown ID or
+ * venue a 404, each with a JSON object holding an error message.
+ *
+ * Usage: java TimetableServer FILE [PORT]
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int BACKLOG = 1024;
+    private static final String VENUES_PREFIX = "/venues/";
+    private static final String EVENTS_SUFFIX = "/events";
+
+    private ConcurrentTimetable timetable;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * The body of a successful response, written once the status has been sent
+     */
+    private interface Body {
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Creates a server. It does not accept requests until started
+     * @param timetable the timetable to answer from
+     * @param port the port to listen on, or 0 for any free port
+     * @throws IOException thrown if the port cannot be bound
+     */
+    public TimetableServer(ConcurrentTimetable timetable, int port) throws IOException {
+        this.timetable = timetable;
+        server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.createContext("/events/", new Route() {
+            @Override
+            Body answer(String path, HashMap<String, String> parameters) {
+                return event(Integer.parseInt(path.substring("/events/".length())));
+            }
+        });
+        server.createContext("/venues", new Route() {
+            @Override
+            Body answer(String path, HashMap<String, String> parameters) {
+                if (path.equals("/venues") || path.equals("/venues/")) {
+                    return venues();
+                }
+                // There must be a name between the two, such as /venues/B22/events
+                if (!path.startsWith(VENUES_PREFIX) || !path.endsWith(EVENTS_SUFFIX)
+                        || path.length() <= VENUES_PREFIX.length() + EVENTS_SUFFIX.length()) {
+                    return null;
+                }
+                String name = decodePath(path.substring(VENUES_PREFIX.length(), path.length() - EVENTS_SUFFIX.length()));
+                return venueEvents(name, time(parameters, "from"), time(parameters, "to"));
+            }
+        });
+        server.createContext("/free", new Route() {
+            @Override
+            Body answer(String path, HashMap<String, String> parameters) {
+                int requirements = (flag(parameters, "projector") ? Facility.DATA_PROJECTOR.mask() : 0) |
+                        (flag(parameters, "seating") ? Facility.ADJUSTABLE_SEATING.mask() : 0);
+                return freeVenues(time(parameters, "from"), time(parameters, "to"), requirements);
+            }
+        });
+        executor = requestExecutor();
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for the ones in progress and then
+     * stops the request threads
+     */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the port the server is listening on
+     * @return the port, useful when it was created with port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /*
+     * Virtual threads make a thread per request cheap, but are only in Java 21 on. The
+     * code is built for Java 8, so their executor is looked up when the server starts
+     */
+    static ExecutorService requestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private Body event(int eventId) {
+        final Event event = timetable.searchForEvent(eventId);
+        if (event == null) {
+            return null;
+        }
+        return new Body() {
+            @Override
+            public void write(Writer out) throws IOException {
+                TimetableJson.writeEvent(out, event);
+            }
+        };
+    }
+
+    private Body venues() {
+        final Venue[] venues = timetable.obtainAllVenues();
+        return new Body() {
+            @Override
+            public void write(Writer out) throws IOException {
+                out.write('[');
+                for (int i = 0; i < venues.length; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    TimetableJson.writeVenue(out, venues[i]);
+                }
+                out.write(']');
+            }
+        };
+    }
+
+    private Body venueEvents(String name, LocalDateTime from, LocalDateTime to) {
+        checkRange(from, to);
+        Venue venue = timetable.searchForVenue(name);
+        if (venue == null) {
+            return null;
+        }
+        final Event[] events = timetable.obtainVenueEvents(venue, from, to);
+        return new Body() {
+            @Override
+            public void write(Writer out) throws IOException {
+                out.write('[');
+                for (int i = 0; i < events.length; i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    TimetableJson.writeEvent(out, events[i]);
+                }
+                out.write(']');
+            }
+        };
+    }
+
+    /*
+     * Only the venues with the required facilities are looked at, found from the facility
+     * index. Each is checked as the response is written, so the first free ones go out
+     * before the last ones have been looked at
+     */
+    private Body freeVenues(final LocalDateTime from, final LocalDateTime to, int requirements) {
+        checkRange(from, to);
+        final Venue[] venues = timetable.obtainVenuesWith(requirements);
+        return new Body() {
+            @Override
+            public void write(Writer out) throws IOException {
+                out.write('[');
+                boolean first = true;
+                for (Venue venue : venues) {
+                    if (timetable.isVenueFree(venue, from, to)) {
+                        if (!first) {
+                            out.write(',');
+                        }
+                        first = false;
+                        TimetableJson.writeVenue(out, venue);
+                    }
+                }
+                out.write(']');
+            }
+        };
+    }
+
+    private static void checkRange(LocalDateTime from, LocalDateTime to) throws IllegalArgumentException {
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("from: " + from + " must be before to: " + to);
+        }
+    }
+
+    private static LocalDateTime time(HashMap<String, String> parameters, String name)
+            throws IllegalArgumentException, DateTimeException {
+        String value = parameters.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return LocalDateTime.parse(value);
+    }
+
+    private static boolean flag(HashMap<String, String> parameters, String name) {
+        return Boolean.parseBoolean(parameters.get(name));
+    }
+
+    private static HashMap<String, String> parameters(String query) {
+        HashMap<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals < 0) {
+                    parameters.put(decode(pair), "");
+                } else {
+                    parameters.put(decode(pair.substring(0, equals)), decode(pair.substring(equals + 1)));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    /*
+     * Decodes a path segment. Only the %XX escapes are decoded there: a '+' in a path is
+     * a plus sign, as in a venue named C++, not a space as in a query string
+     */
+    private static String decodePath(String segment) {
+        return decode(segment.replace("+", "%2B"));
+    }
+
+    /*
+     * Decodes a query string name or value
+     */
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Every JVM supports UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A handler for one kind of request. Everything that can fail is checked in answer(),
+     * before the status is sent, so a response that has started always completes. Any
+     * other failure is answered with a 500 if the status has not been sent yet, rather
+     * than dropping the connection without a response
+     */
+    private abstract static class Route implements HttpHandler {
+        /**
+         * Works out the response to a GET request
+         * @param path the raw path of the request
+         * @param parameters the decoded query parameters
+         * @return the body, or null if there is no such event or venue
+         * @throws IllegalArgumentException thrown if the request is not valid
+         * @throws DateTimeException thrown if a time is not valid
+         */
+        abstract Body answer(String path, HashMap<String, String> parameters)
+                throws IllegalArgumentException, DateTimeException;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                respond(exchange);
+            } catch (RuntimeException e) {
+                System.err.println("Request " + exchange.getRequestURI() + " failed: " + e);
+                // Once the status has gone, closing the exchange is all that can be done
+                if (exchange.getResponseCode() < 0) {
+                    send(exchange, 500, error("Internal error"));
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void respond(HttpExchange exchange) throws IOException {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, error("Only GET is supported"));
+                return;
+            }
+            Body body;
+            try {
+                body = answer(exchange.getRequestURI().getRawPath(),
+                        parameters(exchange.getRequestURI().getRawQuery()));
+            } catch (IllegalArgumentException | DateTimeException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            if (body == null) {
+                send(exchange, 404, error("Not found: " + exchange.getRequestURI().getPath()));
+            } else {
+                send(exchange, 200, body);
+            }
+        }
+
+        private static void send(HttpExchange exchange, int status, Body body) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            // A length of 0 means the body is sent in chunks as it is written
+            exchange.sendResponseHeaders(status, 0);
+            Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+            body.write(out);
+            out.flush();
+        }
+
+        private static Body error(final String message) {
+            return new Body() {
+                @Override
+                public void write(Writer out) throws IOException {
+                    TimetableJson.writeError(out, message);
+                }
+            };
+        }
+    }
+
+    /**
+     * Loads a timetable file and serves it until the program is stopped
+     * @param args the timetable file, and optionally the port
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java TimetableServer FILE [PORT]");
+            System.exit(2);
+        }
+        try {
+            Timetable timetable = new Timetable();
+            timetable.load(args[0]);
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            TimetableServer server = new TimetableServer(new ConcurrentTimetable(timetable), port);
+            server.start();
+            System.out.println("Serving " + timetable.obtainAllEvents().length + " events from " + args[0] +
+                    " on port " + server.getPort());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Unable to start the server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe timetable for serving many booking clients at once. Each venue is
+ * guarded by one of a fixed set of striped locks, so bookings in different rooms
+ * rarely contend. The lecturer or organiser of an event is guarded the same way by a
+ * second set of locks, always taken after the venue's, so that a person cannot be
+ * double booked in two rooms either. Snapshots of all events are taken optimistically
+ * and retried if a booking happened meanwhile, so readers do not hold up writers.
+ * Booked events must not be changed; remove them and book them again instead. Added
+ * venues must not be renamed, as they are looked up by name, nor have their facilities
+ * changed, as they are indexed by them.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class ConcurrentTimetable {
+    private static final int STRIPES = 64;
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+
+    private ConcurrentHashMap<Integer, Event> events;
+    private CopyOnWriteArrayList<Venue> venues;
+    private ConcurrentHashMap<String, Venue> venuesByName;
+    // One set per Facility of the positions in venues of the venues that have it. Replaced
+    // whole, under venueLock, whenever a venue is added, so readers never see it change
+    private volatile BitSet[] venuesWithFacility;
+    private final Object venueLock = new Object();
+    // Guarded by the stripe lock of their venue
+    private ConcurrentHashMap<Venue, Schedule> venueSchedules;
+    // Guarded by the person stripe lock of their lecturer number or organiser
+    private ConcurrentHashMap<Integer, Schedule> lecturerSchedules;
+    private ConcurrentHashMap<String, Schedule> organiserSchedules;
+    private ReentrantLock[] stripes;
+    private ReentrantLock[] personStripes;
+    // Every change increments writesStarted before and writesFinished after, so a reader
+    // that sees both equal and unchanged across a copy knows the copy is consistent
+    private AtomicLong writesStarted;
+    private AtomicLong writesFinished;
+
+    /**
+     * Creates an empty timetable
+     */
+    public ConcurrentTimetable() {
+        events = new ConcurrentHashMap<>();
+        venues = new CopyOnWriteArrayList<>();
+        venuesByName = new ConcurrentHashMap<>();
+        venuesWithFacility = new BitSet[Facility.values().length];
+        for (int i = 0; i < venuesWithFacility.length; i++) {
+            venuesWithFacility[i] = new BitSet();
+        }
+        venueSchedules = new ConcurrentHashMap<>();
+        lecturerSchedules = new ConcurrentHashMap<>();
+        organiserSchedules = new ConcurrentHashMap<>();
+        stripes = new ReentrantLock[STRIPES];
+        personStripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+            personStripes[i] = new ReentrantLock();
+        }
+        writesStarted = new AtomicLong();
+        writesFinished = new AtomicLong();
+    }
+
+    /**
+     * Creates a thread-safe timetable holding the venues and events of another timetable
+     * @param timetable the timetable to copy
+     */
+    public ConcurrentTimetable(Timetable timetable) {
+        this();
+        for (Venue venue : timetable.viewAllVenues()) {
+            add(venue);
+        }
+        for (Event event : timetable.viewAllEvents()) {
+            book(event);
+        }
+    }
+
+    /**
+     * Add a venue to the timetable system.
+     * @param venue A non-null, unique venue object.
+     * @return true if venue added else false if a venue with the same name already exists
+     * @throws IllegalArgumentException is thrown if venue is null
+     */
+    public boolean add(Venue venue) {
+        if (venue == null) {
+            throw new IllegalArgumentException("The venue must not be null");
+        }
+        synchronized (venueLock) {
+            if (venuesByName.putIfAbsent(venue.getName(), venue) != null) {
+                return false;
+            }
+            BitSet[] index = new BitSet[venuesWithFacility.length];
+            for (Facility facility : Facility.values()) {
+                index[facility.ordinal()] = (BitSet) venuesWithFacility[facility.ordinal()].clone();
+                if (venue.has(facility)) {
+                    index[facility.ordinal()].set(venues.size());
+                }
+            }
+            venues.add(venue);
+            venuesWithFacility = index;
+        }
+        return true;
+    }
+
+    /**
+     * Books an event, checking for a clash and booking as one atomic step. The event is
+     * only published, to searchForEvent and the other readers, once it is known not to clash
+     * @param event A non-null event with a unique event ID.
+     * @return true if booked else false if the ID is in use, or the venue or the person
+     * running the event is already booked for an overlapping time
+     * @throws IllegalArgumentException is thrown if event is null or does not end after it starts
+     */
+    public boolean book(Event event) {
+        if (event == null) {
+            throw new IllegalArgumentException("The event must not be null");
+        }
+        Event.checkTimes(event.startTime, event.endTime);
+        ReentrantLock lock = stripeFor(event.venue);
+        ReentrantLock personLock = personStripeFor(event);
+        lock.lock();
+        personLock.lock();
+        writesStarted.incrementAndGet();
+        try {
+            Schedule venueSchedule = null;
+            Schedule personSchedule = null;
+            if (event.startTime != null && event.endTime != null) {
+                venueSchedule = event.venue == null ? null : scheduleIn(venueSchedules, event.venue);
+                personSchedule = personSchedule(event);
+                if (clashes(venueSchedule, event) || clashes(personSchedule, event)) {
+                    return false;
+                }
+            }
+            if (events.putIfAbsent(event.eventId, event) != null) {
+                return false;
+            }
+            // Both locks are held, so neither schedule can have gained a clash since the check
+            if (venueSchedule != null) {
+                venueSchedule.book(event);
+            }
+            if (personSchedule != null) {
+                personSchedule.book(event);
+            }
+            return true;
+        } finally {
+            writesFinished.incrementAndGet();
+            personLock.unlock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes an event from the timetable
+     * @param eventId The ID of the event to be removed
+     * @return true if removed else false if not found
+     */
+    public boolean removeEvent(int eventId) {
+        Event event = events.get(eventId);
+        if (event == null) {
+            return false;
+        }
+        ReentrantLock lock = stripeFor(event.venue);
+        ReentrantLock personLock = personStripeFor(event);
+        lock.lock();
+        personLock.lock();
+        writesStarted.incrementAndGet();
+        try {
+            if (!events.remove(eventId, event)) {
+                return false;
+            }
+            Schedule schedule = event.venue == null ? null : venueSchedules.get(event.venue);
+            if (schedule != null) {
+                schedule.cancel(event);
+            }
+            schedule = personSchedule(event);
+            if (schedule != null) {
+                schedule.cancel(event);
+            }
+            return true;
+        } finally {
+            writesFinished.incrementAndGet();
+            personLock.unlock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Searches for a given event
+     * @param eventId the event to search for
+     * @return The found event or else null if not found
+     */
+    public Event searchForEvent(int eventId) {
+        return events.get(eventId);
+    }
+
+    /**
+     * Searches for the given venue
+     * @param name The name of the venue. Must not be null.
+     * @return The venue if found else null
+     */
+    public Venue searchForVenue(String name) {
+        return venuesByName.get(name);
+    }
+
+    /**
+     * Checks whether a venue is free for the given time range
+     * @param venue the venue to check
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @return true if no event is booked in the venue during the range
+     */
+    public boolean isVenueFree(Venue venue, LocalDateTime start, LocalDateTime end) {
+        ReentrantLock lock = stripeFor(venue);
+        lock.lock();
+        try {
+            Schedule schedule = venueSchedules.get(venue);
+            return schedule == null || schedule.findClash(start, end, null) == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains the events booked in a venue that overlap the given time range
+     * @param venue the venue
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the events in start time order
+     */
+    public Event[] obtainVenueEvents(Venue venue, LocalDateTime from, LocalDateTime to) {
+        ReentrantLock lock = stripeFor(venue);
+        lock.lock();
+        try {
+            Schedule schedule = venueSchedules.get(venue);
+            if (schedule == null) {
+                return new Event[0];
+            }
+            ArrayList<Event> found = schedule.between(from, to);
+            return found.toArray(new Event[found.size()]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Obtains a consistent copy of the booked events. The copy is taken without locking
+     * and retried if a booking or removal overlapped it. Only if writers keep interfering
+     * are they briefly held off while the copy is made.
+     * @return A copy of the booked events, in no particular order
+     */
+    public Event[] obtainAllEvents() {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long finished = writesFinished.get();
+            if (writesStarted.get() == finished) {
+                Event[] copy = events.values().toArray(new Event[0]);
+                if (writesStarted.get() == finished) {
+                    return copy;
+                }
+            }
+            Thread.yield();
+        }
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+        try {
+            return events.values().toArray(new Event[0]);
+        } finally {
+            for (ReentrantLock lock : stripes) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Obtains a copy of the venues. Never blocks
+     * @return A copy of the venues, in the order they were added
+     */
+    public Venue[] obtainAllVenues() {
+        return venues.toArray(new Venue[0]);
+    }
+
+    /**
+     * Obtains the venues that have all the given facilities, using the facility index so
+     * that venues without them are not looked at. Never blocks
+     * @param requirements a bit mask of Facility.mask() values
+     * @return the venues, in the order they were added
+     */
+    public Venue[] obtainVenuesWith(int requirements) {
+        if ((requirements & ~Facility.maskOf(Facility.values())) != 0) {
+            // Asks for a facility no venue can have
+            return new Venue[0];
+        }
+        // Read once, as a venue added meanwhile publishes a new index
+        BitSet[] index = venuesWithFacility;
+        BitSet suitable = null;
+        for (Facility facility : Facility.values()) {
+            if ((requirements & facility.mask()) != 0) {
+                if (suitable == null) {
+                    suitable = (BitSet) index[facility.ordinal()].clone();
+                } else {
+                    suitable.and(index[facility.ordinal()]);
+                }
+            }
+        }
+        if (suitable == null) {
+            return obtainAllVenues();
+        }
+        ArrayList<Venue> result = new ArrayList<>();
+        for (int i = suitable.nextSetBit(0); i >= 0; i = suitable.nextSetBit(i + 1)) {
+            result.add(venues.get(i));
+        }
+        return result.toArray(new Venue[0]);
+    }
+
+    /*
+     * Returns the bookings of whoever runs an event, the lecturer of a lecture or the
+     * organiser of a meeting, creating them if needed. Returns null if no one is named.
+     * The caller holds the person's stripe lock
+     */
+    private Schedule personSchedule(Event event) {
+        if (event instanceof Lecture && ((Lecture) event).lecturerNumber != Lecture.NO_LECTURER) {
+            return scheduleIn(lecturerSchedules, ((Lecture) event).lecturerNumber);
+        } else if (event instanceof Meeting && ((Meeting) event).organiser != null) {
+            return scheduleIn(organiserSchedules, ((Meeting) event).organiser);
+        }
+        return null;
+    }
+
+    private static <K> Schedule scheduleIn(ConcurrentHashMap<K, Schedule> schedules, K key) {
+        Schedule schedule = schedules.get(key);
+        if (schedule == null) {
+            schedule = new Schedule();
+            schedules.put(key, schedule);
+        }
+        return schedule;
+    }
+
+    private static boolean clashes(Schedule schedule, Event event) {
+        return schedule != null && schedule.findClash(event.startTime, event.endTime, event.recurrence, null) != null;
+    }
+
+    /*
+     * Picks the lock guarding the person who runs an event. Events without one share the
+     * first stripe
+     */
+    private ReentrantLock personStripeFor(Event event) {
+        int hash = 0;
+        if (event instanceof Lecture) {
+            hash = Integer.hashCode(((Lecture) event).lecturerNumber);
+        } else if (event instanceof Meeting && ((Meeting) event).organiser != null) {
+            hash = ((Meeting) event).organiser.hashCode();
+        }
+        hash ^= hash >>> 16;
+        return personStripes[hash & (STRIPES - 1)];
+    }
+
+    /*
+     * Picks the lock guarding a venue. Events without a venue share the first stripe
+     */
+    private ReentrantLock stripeFor(Venue venue) {
+        if (venue == null) {
+            return stripes[0];
+        }
+        int hash = venue.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & (STRIPES - 1)];
+    }
+}
@@ -1,6 +1,9 @@
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Scanner;
+import java.util.Collection;
 
 /**
  * Represents events {Meetings and Lectures}
@@ -8,14 +11,20 @@ import java.util.Scanner;
  * @version 1
  */
 
-public class Event implements Comparable<Event>{
+public class Event implements Comparable<Event>, Cloneable {
     int eventId;
     Venue venue;
     LocalDateTime startTime;
     LocalDateTime endTime;
-    boolean projectorNeeded;
-    boolean adjustableSeatingRequired;
-
+    // The facilities this event needs, one bit per Facility
+    int requirements;
+    // How the event repeats, or null if it takes place once. The times are those of
+    // the first occurrence
+    Recurrence recurrence;
+    // For an occurrence of a recurring event, the recurring event
+    Event series;
+    // The timetable this event has been added to, if any
+    Timetable timetable;
 
     Event() {
     }
@@ -29,11 +38,19 @@ public class Event implements Comparable<Event>{
     }
 
     /**
-     * Sets the ID of the event
+     * Sets the ID of the event. An event in a timetable is re-indexed under its new ID
      * @param id the desired ID
+     * @throws IllegalArgumentException thrown if the event is in a timetable that already
+     * has another event with this ID
      */
-    public void setEventId(int id) {
-        eventId = id;
+    public void setEventId(int id) throws IllegalArgumentException {
+        if (timetable != null) {
+            if (!timetable.changeEventId(this, id)) {
+                throw new IllegalArgumentException("Event ID " + id + " is already in use");
+            }
+        } else {
+            eventId = id;
+        }
     }
 
     /**
@@ -51,14 +68,27 @@ public class Event implements Comparable<Event>{
     public void setVenue(Venue ven) {
         // Only allow this if the venue spec matches the
         // the meeting requirement
-        if (projectorNeeded && !ven.hasDataProjector() || adjustableSeatingRequired && !ven.HasAdjustableSeating()) {
+        if (!canUseVenue(ven)) {
             System.err.println("Meeting requires a data projector or adjustible seating. " +
                     "Venue " + ven.getName() + " isn't compatible");
+        } else if (timetable != null) {
+            if (!timetable.reschedule(this, ven, startTime, endTime)) {
+                System.err.println("Venue " + ven.getName() + " is already booked at that time");
+            }
         } else {
             this.venue = ven;
         }
     }
 
+    /**
+     * Checks whether a venue has the facilities this event requires
+     * @param ven the venue to check
+     * @return true if the venue is suitable
+     */
+    public boolean canUseVenue(Venue ven) {
+        return (requirements & ~ven.getFacilities()) == 0;
+    }
+
     /**
      * Returns the current venue
      * @return venue
@@ -72,7 +102,7 @@ public class Event implements Comparable<Event>{
      * @return projectorneeded
      */
     public boolean isDataProjectorRequired(){
-        return projectorNeeded;
+        return requires(Facility.DATA_PROJECTOR);
     }
 
     /**
@@ -84,7 +114,54 @@ public class Event implements Comparable<Event>{
             System.err.println("Event currently has a venue " +
                     venue.getName() + " that does not have a data projector. Change the venue first");
         } else {
-            this.projectorNeeded = dataProjectorRequired;
+            markRequired(Facility.DATA_PROJECTOR, dataProjectorRequired);
+        }
+    }
+
+    /**
+     * returns whether the event requires a facility
+     * @param facility the facility
+     * @return true or false
+     */
+    public boolean requires(Facility facility) {
+        return (requirements & facility.mask()) != 0;
+    }
+
+    /**
+     * returns the facilities the event requires
+     * @return a bit mask of Facility.mask() values
+     */
+    public int getRequirements() {
+        return requirements;
+    }
+
+    /**
+     * sets whether the event requires a facility, as long as the current venue has it
+     * @param facility the facility
+     * @param required is it required?
+     */
+    public void setRequired(Facility facility, boolean required) {
+        if (venue != null && required && !venue.has(facility)) {
+            System.err.println("Event currently has a venue " +
+                    venue.getName() + " that does not have " + facility + ". Change the venue first");
+        } else {
+            markRequired(facility, required);
+        }
+    }
+
+    /**
+     * sets whether the event requires a facility, without checking the venue. The
+     * timetable the event is in, if any, is told of the change
+     * @param facility the facility
+     * @param required is it required?
+     */
+    void markRequired(Facility facility, boolean required) {
+        int changed = required ? requirements | facility.mask() : requirements & ~facility.mask();
+        if (changed != requirements) {
+            requirements = changed;
+            if (timetable != null) {
+                timetable.detailsChanged(this);
+            }
         }
     }
 
@@ -92,14 +169,23 @@ public class Event implements Comparable<Event>{
      *
      * @param startTime the starting time of the event
      * @param endTime the ending time of the event
-     * @throws IllegalArgumentException thrown if time is out of bounds
+     * @throws IllegalArgumentException thrown if time is out of bounds or the venue or the person running
+     * the event is already booked
      */
     public void setStartAndEndTime(LocalDateTime startTime, LocalDateTime endTime) throws IllegalArgumentException {
         if (startTime.compareTo(endTime) >= 0){
             throw new IllegalArgumentException("start time: " + startTime + " must be before end time: " + endTime);
         }
-        this.startTime = startTime;
-        this.endTime = endTime;
+        checkRecurrence(startTime, endTime, recurrence);
+        if (timetable != null) {
+            if (!timetable.reschedule(this, venue, startTime, endTime)) {
+                throw new IllegalArgumentException((venue == null ? "The" : "Venue " + venue.getName() + " or the") +
+                        " person running event " + eventId + " is already booked between " + startTime + " and " + endTime);
+            }
+        } else {
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
     }
 
     /**
@@ -118,14 +204,147 @@ public class Event implements Comparable<Event>{
         return endTime;
     }
 
+    /**
+     * Makes the event repeat, or stop repeating. The start and end times stay those of
+     * the first occurrence
+     * @param recurrence how the event repeats, or null for an event that takes place once
+     * @throws IllegalArgumentException thrown if the event lasts longer than the gap between
+     * occurrences, or the venue or the person running the event is already booked at one of
+     * the new occurrences
+     */
+    public void setRecurrence(Recurrence recurrence) throws IllegalArgumentException {
+        checkRecurrence(startTime, endTime, recurrence);
+        if (timetable != null) {
+            if (!timetable.changeRecurrence(this, recurrence)) {
+                throw new IllegalArgumentException((venue == null ? "The" : "Venue " + venue.getName() + " or the") +
+                        " person running event " + eventId + " is already booked at one of its occurrences");
+            }
+        } else {
+            this.recurrence = recurrence;
+        }
+    }
+
+    /**
+     * returns how the event repeats
+     * @return the recurrence, or null if the event takes place once
+     */
+    public Recurrence getRecurrence() {
+        return recurrence;
+    }
+
+    /**
+     * returns the recurring event that this event is one occurrence of. Occurrences are
+     * copies made by the timetable's queries, so changing one does not change the timetable
+     * @return the recurring event, or null if this is not an occurrence
+     */
+    public Event getSeries() {
+        return series;
+    }
+
+    /**
+     * Checks that an event with the given times ends after it starts. Events are only
+     * given times out of order when read from a damaged file
+     * @param start the start time, may be null
+     * @param end the end time, may be null
+     * @throws IllegalArgumentException thrown if both times are set and the end is not
+     * after the start
+     */
+    static void checkTimes(LocalDateTime start, LocalDateTime end) throws IllegalArgumentException {
+        if (start != null && end != null && !start.isBefore(end)) {
+            throw new IllegalArgumentException("start time: " + start + " must be before end time: " + end);
+        }
+    }
+
+    /**
+     * Checks that an event with the given times fits between its occurrences
+     * @param start the start of the first occurrence, may be null
+     * @param end the end of the first occurrence, may be null
+     * @param recurrence how the event repeats, may be null
+     * @throws IllegalArgumentException thrown if the occurrences would overlap
+     */
+    static void checkRecurrence(LocalDateTime start, LocalDateTime end, Recurrence recurrence)
+            throws IllegalArgumentException {
+        if (recurrence != null && start != null && end != null && !recurrence.fits(Duration.between(start, end))) {
+            throw new IllegalArgumentException("An event from " + start + " to " + end +
+                    " is longer than the " + recurrence.getIntervalWeeks() + " week gap between its occurrences");
+        }
+    }
+
+    /**
+     * Adds the occurrences of this recurring event that take place in a time range to a
+     * collection. Occurrences are made here, when they are asked for, and are not kept
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @param starting true for the occurrences that start in the range, false for the
+     *                 ones that overlap it
+     * @param into the collection to add the occurrences to, in start time order
+     */
+    void addOccurrences(LocalDateTime from, LocalDateTime to, boolean starting, Collection<? super Event> into) {
+        if (startTime == null || !starting && endTime == null) {
+            return;
+        }
+        int k = starting ? recurrence.firstStartingFrom(startTime, from)
+                : recurrence.firstEndingAfter(startTime, Duration.between(startTime, endTime), from);
+        for (; k < recurrence.getCount(); k++) {
+            LocalDateTime start = recurrence.start(startTime, k);
+            if (!start.isBefore(to)) {
+                break;
+            }
+            if (!recurrence.skips(start)) {
+                into.add(occurrence(start));
+            }
+        }
+    }
+
+    /**
+     * Finds an occurrence of this recurring event that overlaps a time range
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the start of the first such occurrence, or null if there is none
+     */
+    LocalDateTime findOccurrence(LocalDateTime from, LocalDateTime to) {
+        Duration length = Duration.between(startTime, endTime);
+        for (int k = recurrence.firstEndingAfter(startTime, length, from); k < recurrence.getCount(); k++) {
+            LocalDateTime start = recurrence.start(startTime, k);
+            if (!start.isBefore(to)) {
+                break;
+            }
+            if (!recurrence.skips(start)) {
+                return start;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Makes a copy of this recurring event for the occurrence starting at the given time
+     * @param start the start of the occurrence
+     * @return the occurrence, which does not repeat and does not belong to a timetable
+     */
+    Event occurrence(LocalDateTime start) {
+        Event occurrence;
+        try {
+            occurrence = (Event) clone();
+        } catch (CloneNotSupportedException e) {
+            // Event is Cloneable
+            throw new AssertionError(e);
+        }
+        occurrence.startTime = start;
+        occurrence.endTime = endTime == null ? null : start.plus(Duration.between(startTime, endTime));
+        occurrence.recurrence = null;
+        occurrence.series = this;
+        occurrence.timetable = null;
+        return occurrence;
+    }
+
     /**
      * reads and handles the dateTime from a text file
      * @param infile the input file
      * @return the information parsed from the file
+     * @throws IOException thrown if the file cannot be read
      */
-    LocalDateTime readDateTime(Scanner infile){
-        String dateTime = infile.next();
-        return LocalDateTime.parse(dateTime);
+    LocalDateTime readDateTime(TimetableReader infile) throws IOException {
+        return infile.nextDateTime();
     }
 
     /**
@@ -144,6 +363,152 @@ public class Event implements Comparable<Event>{
     public void save(PrintWriter outfile){
     }
 
+    /**
+     * Writes the "recurring" line and the recurrence ahead of the event's own record, if
+     * the event repeats
+     * @param outfile the output file
+     */
+    void saveRecurrence(PrintWriter outfile) {
+        if (recurrence != null) {
+            outfile.println("recurring");
+            recurrence.save(outfile);
+        }
+    }
+
+    /**
+     * Writes the event information to a text sink, without building an intermediate
+     * String. Overridden in meeting and lecture
+     * @param out the sink, for example a Writer or StringBuilder
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    public void appendTo(Appendable out) throws IOException {
+        out.append("Event{eventId=");
+        appendInt(out, eventId);
+        out.append(", venue=");
+        appendVenue(out, venue);
+        out.append(", startTime=");
+        appendDateTime(out, startTime);
+        out.append(", endTime=");
+        appendDateTime(out, endTime);
+        appendRecurrence(out, recurrence);
+        out.append('}');
+    }
+
+    /**
+     * gives the event information, as written by appendTo
+     * @return a string containing all important event information
+     */
+    @Override
+    public String toString() {
+        StringBuilder output = new StringBuilder();
+        try {
+            appendTo(output);
+        } catch (IOException e) {
+            // A StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Writes a venue to a text sink, or null if there is none
+     * @param out the sink
+     * @param venue the venue, may be null
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    static void appendVenue(Appendable out, Venue venue) throws IOException {
+        if (venue == null) {
+            out.append("null");
+        } else {
+            venue.appendTo(out);
+        }
+    }
+
+    /**
+     * Writes how an event repeats to a text sink, if it does
+     * @param out the sink
+     * @param recurrence the recurrence, may be null
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    static void appendRecurrence(Appendable out, Recurrence recurrence) throws IOException {
+        if (recurrence != null) {
+            out.append(", recurrence=").append(recurrence.toString());
+        }
+    }
+
+    /**
+     * Writes an int to a text sink one digit at a time
+     * @param out the sink
+     * @param value the value
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    static void appendInt(Appendable out, int value) throws IOException {
+        long remaining = value;
+        if (remaining < 0) {
+            out.append('-');
+            remaining = -remaining;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= remaining) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + remaining / divisor % 10));
+        }
+    }
+
+    /**
+     * Writes a date/time to a text sink in the same form as LocalDateTime.toString()
+     * @param out the sink
+     * @param dateTime the date/time, may be null
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    static void appendDateTime(Appendable out, LocalDateTime dateTime) throws IOException {
+        if (dateTime == null || dateTime.getYear() < 0 || dateTime.getYear() > 9999) {
+            // Rare enough to leave to LocalDateTime
+            out.append(String.valueOf(dateTime));
+            return;
+        }
+        appendDigits(out, dateTime.getYear(), 4);
+        out.append('-');
+        appendDigits(out, dateTime.getMonthValue(), 2);
+        out.append('-');
+        appendDigits(out, dateTime.getDayOfMonth(), 2);
+        out.append('T');
+        appendDigits(out, dateTime.getHour(), 2);
+        out.append(':');
+        appendDigits(out, dateTime.getMinute(), 2);
+        int second = dateTime.getSecond();
+        int nano = dateTime.getNano();
+        if (second > 0 || nano > 0) {
+            out.append(':');
+            appendDigits(out, second, 2);
+            if (nano > 0) {
+                out.append('.');
+                if (nano % 1000000 == 0) {
+                    appendDigits(out, nano / 1000000, 3);
+                } else if (nano % 1000 == 0) {
+                    appendDigits(out, nano / 1000, 6);
+                } else {
+                    appendDigits(out, nano, 9);
+                }
+            }
+        }
+    }
+
+    /*
+     * Writes a non-negative value zero padded to the given number of digits
+     */
+    private static void appendDigits(Appendable out, int value, int width) throws IOException {
+        int divisor = 1;
+        for (int i = 1; i < width; i++) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
     /**
      * compares two events by starting time
      * @param other the event to be compared with
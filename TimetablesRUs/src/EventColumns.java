@@ -0,0 +1,385 @@
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A read-only copy of a timetable's events held column by column, for reports that scan
+ * all of them. Each field is a primitive array with one entry per row, so a scan that
+ * only needs a few fields runs through contiguous memory instead of following references
+ * from event to event and out to LocalDateTime objects.
+ *
+ * Times are epoch-minutes (UTC, rounded down) as in TimetableSnapshot, venues are the
+ * timetable's venue IDs and text fields are indexes into a string table, -1 for none.
+ * Lecture and meeting fields are side columns holding -1, or NONE for the lecturer
+ * number, in rows of the other kind. A recurring event has a row for each occurrence.
+ * Rows are in start time order, with any events that have no start time first.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class EventColumns {
+    /**
+     * The value of a time or lecturer number column where the event has none
+     */
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private static final long MINUTES_PER_WEEK = 7 * 24 * 60;
+
+    private int size;
+    // The longest event, so that a range scan knows how far back it has to start
+    private int maxLength;
+    private Venue[] venues;
+    private String[] strings;
+
+    // One entry per row. Package access so that reports can scan them directly
+    final int[] eventIds;
+    final int[] starts;
+    final int[] ends;
+    final int[] venueIds;
+    final int[] requirements;
+    final byte[] kinds;
+    // Lecture columns
+    final int[] moduleCodes;
+    final int[] lecturerNames;
+    final int[] lecturerNumbers;
+    // Meeting columns
+    final int[] meetingNames;
+    final int[] organisers;
+    final byte[] meetingTypes;
+
+    /**
+     * Copies the events of a timetable into columns
+     * @param timetable the timetable
+     * @throws IllegalArgumentException thrown if an event time is too far from 1970 to be
+     * held as an int number of minutes
+     */
+    public EventColumns(Timetable timetable) throws IllegalArgumentException {
+        // The occurrences of recurring events are worked out here in whole minutes, a
+        // whole number of weeks apart, rather than as an Event object each
+        int rowCount = 0;
+        boolean recurring = false;
+        for (Event event : timetable.viewAllEvents()) {
+            if (event.recurrence == null) {
+                rowCount++;
+            } else if (event.startTime != null) {
+                rowCount += event.recurrence.getCount();
+                recurring = true;
+            }
+        }
+        Event[] sources = new Event[rowCount];
+        int[] rowStarts = new int[rowCount];
+        int[] rowEnds = new int[rowCount];
+        int row = 0;
+        for (Event event : timetable.viewAllEvents()) {
+            int start = event.startTime == null ? NONE : toMinute(event.startTime);
+            int end = event.endTime == null ? NONE : toMinute(event.endTime);
+            if (event.recurrence == null) {
+                sources[row] = event;
+                rowStarts[row] = start;
+                rowEnds[row++] = end;
+            } else if (start != NONE) {
+                Recurrence recurrence = event.recurrence;
+                long period = recurrence.getIntervalWeeks() * MINUTES_PER_WEEK;
+                // Only the last occurrence can be out of range if the first one is not
+                toMinute(recurrence.start(event.startTime, recurrence.getCount() - 1));
+                if (end != NONE) {
+                    toMinute(recurrence.start(event.endTime, recurrence.getCount() - 1));
+                }
+                boolean exceptions = !recurrence.getExceptions().isEmpty();
+                for (int k = 0; k < recurrence.getCount(); k++) {
+                    if (exceptions && recurrence.skips(recurrence.start(event.startTime, k))) {
+                        continue;
+                    }
+                    sources[row] = event;
+                    rowStarts[row] = (int) (start + k * period);
+                    rowEnds[row++] = end == NONE ? NONE : (int) (end + k * period);
+                }
+            }
+        }
+        size = row;
+
+        // The events came in start order, but the occurrences of each recurring event came
+        // in where the event itself was, so sort on the start and then the arrival order
+        int[] order = null;
+        if (recurring) {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (long) rowStarts[i] << 32 | i;
+            }
+            Arrays.sort(keys);
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) keys[i];
+            }
+        }
+
+        venues = new Venue[timetable.venueIdLimit()];
+        for (int id = 0; id < venues.length; id++) {
+            venues[id] = timetable.venueById(id);
+        }
+
+        eventIds = new int[size];
+        starts = new int[size];
+        ends = new int[size];
+        venueIds = new int[size];
+        requirements = new int[size];
+        kinds = new byte[size];
+        moduleCodes = new int[size];
+        lecturerNames = new int[size];
+        lecturerNumbers = new int[size];
+        meetingNames = new int[size];
+        organisers = new int[size];
+        meetingTypes = new byte[size];
+
+        HashMap<String, Integer> stringIds = new HashMap<>();
+        ArrayList<String> table = new ArrayList<>();
+        for (row = 0; row < size; row++) {
+            int from = order == null ? row : order[row];
+            Event event = sources[from];
+            eventIds[row] = event.eventId;
+            starts[row] = rowStarts[from];
+            ends[row] = rowEnds[from];
+            if (starts[row] != NONE && ends[row] != NONE) {
+                maxLength = Math.max(maxLength, ends[row] - starts[row]);
+            }
+            venueIds[row] = event.venue == null ? -1 : timetable.venueId(event.venue);
+            requirements[row] = event.requirements;
+            moduleCodes[row] = -1;
+            lecturerNames[row] = -1;
+            lecturerNumbers[row] = NONE;
+            meetingNames[row] = -1;
+            organisers[row] = -1;
+            meetingTypes[row] = -1;
+            if (event instanceof Lecture) {
+                Lecture lecture = (Lecture) event;
+                kinds[row] = TimetableSnapshot.LECTURE;
+                moduleCodes[row] = intern(lecture.moduleCode, stringIds, table);
+                lecturerNames[row] = intern(lecture.getLecturerName(), stringIds, table);
+                lecturerNumbers[row] = lecture.lecturerNumber;
+            } else {
+                kinds[row] = TimetableSnapshot.MEETING;
+                if (event instanceof Meeting) {
+                    Meeting meeting = (Meeting) event;
+                    meetingNames[row] = intern(meeting.getMeetingName(), stringIds, table);
+                    organisers[row] = intern(meeting.organiser, stringIds, table);
+                    meetingTypes[row] = (byte) (meeting.getMeetingType() == null ? -1 : meeting.getMeetingType().ordinal());
+                }
+            }
+        }
+        strings = table.toArray(new String[table.size()]);
+    }
+
+    /**
+     * Returns the number of rows
+     * @return the number of events, counting each occurrence of a recurring event
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the ID of the event in a row
+     * @param row the row
+     * @return the event ID
+     */
+    public int getEventId(int row) {
+        return eventIds[row];
+    }
+
+    /**
+     * Returns the start time of a row
+     * @param row the row
+     * @return the start time, or null if the event has none
+     */
+    public LocalDateTime getStartTime(int row) {
+        return fromMinute(starts[row]);
+    }
+
+    /**
+     * Returns the end time of a row
+     * @param row the row
+     * @return the end time, or null if the event has none
+     */
+    public LocalDateTime getEndTime(int row) {
+        return fromMinute(ends[row]);
+    }
+
+    /**
+     * Returns the venue of a row
+     * @param row the row
+     * @return the venue, or null if the event has none
+     */
+    public Venue getVenue(int row) {
+        return venueIds[row] < 0 ? null : venues[venueIds[row]];
+    }
+
+    /**
+     * Returns the facilities the event in a row requires
+     * @param row the row
+     * @return a bit mask of Facility.mask() values
+     */
+    public int getRequirements(int row) {
+        return requirements[row];
+    }
+
+    /**
+     * Checks whether a row is a lecture
+     * @param row the row
+     * @return true for a lecture, false for a meeting
+     */
+    public boolean isLecture(int row) {
+        return kinds[row] == TimetableSnapshot.LECTURE;
+    }
+
+    /**
+     * Returns the module code of a lecture row
+     * @param row the row
+     * @return the module code, or null for a meeting
+     */
+    public String getModuleCode(int row) {
+        return string(moduleCodes[row]);
+    }
+
+    /**
+     * Returns the lecturer number of a lecture row
+     * @param row the row
+     * @return the lecturer number, or NONE for a meeting
+     */
+    public int getLecturerNumber(int row) {
+        return lecturerNumbers[row];
+    }
+
+    /**
+     * Returns the organiser of a meeting row
+     * @param row the row
+     * @return the organiser, or null for a lecture
+     */
+    public String getOrganiser(int row) {
+        return string(organisers[row]);
+    }
+
+    /**
+     * Returns a venue by the ID used in the venue column
+     * @param venueId the venue ID, from 0 to venueIdLimit()
+     * @return the venue
+     */
+    public Venue venueById(int venueId) {
+        return venues[venueId];
+    }
+
+    /**
+     * Returns one more than the highest venue ID
+     * @return the size of an array indexed by venue ID
+     */
+    public int venueIdLimit() {
+        return venues.length;
+    }
+
+    /**
+     * Finds the first row starting at or after a given time
+     * @param time the time
+     * @return the row, or size() if every event starts earlier
+     */
+    public int firstStartingFrom(LocalDateTime time) {
+        return firstStartingFrom(clampedMinute(time));
+    }
+
+    /**
+     * Adds up the minutes each venue is booked for within a time range
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the booked minutes, indexed by venue ID
+     */
+    public long[] bookedMinutesByVenue(LocalDateTime from, LocalDateTime to) {
+        long[] minutes = new long[venues.length];
+        int fromMinute = clampedMinute(from);
+        int toMinute = clampedMinute(to);
+        // Nothing starting more than maxLength before the range can reach into it
+        for (int row = firstStartingFrom((int) Math.max(NONE + 1L, (long) fromMinute - maxLength));
+             row < size && starts[row] < toMinute; row++) {
+            int venue = venueIds[row];
+            int end = ends[row];
+            if (venue >= 0 && end > fromMinute) {
+                minutes[venue] += Math.min(end, toMinute) - Math.max(starts[row], fromMinute);
+            }
+        }
+        return minutes;
+    }
+
+    /**
+     * Counts the events held in each venue that overlap a time range
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the number of events, indexed by venue ID
+     */
+    public int[] countByVenue(LocalDateTime from, LocalDateTime to) {
+        int[] counts = new int[venues.length];
+        int fromMinute = clampedMinute(from);
+        int toMinute = clampedMinute(to);
+        for (int row = firstStartingFrom((int) Math.max(NONE + 1L, (long) fromMinute - maxLength));
+             row < size && starts[row] < toMinute; row++) {
+            if (venueIds[row] >= 0 && ends[row] > fromMinute) {
+                counts[venueIds[row]]++;
+            }
+        }
+        return counts;
+    }
+
+    /*
+     * Binary searches the start column, which is in order with NONE first
+     */
+    private int firstStartingFrom(int minute) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Converts an event time into epoch-minutes
+     */
+    private static int toMinute(LocalDateTime dateTime) {
+        long minute = Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+        if (minute <= NONE || minute > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Time out of range for columns: " + dateTime);
+        }
+        return (int) minute;
+    }
+
+    /*
+     * Converts a query time into epoch-minutes, clamped to the times a row can have
+     */
+    private static int clampedMinute(LocalDateTime dateTime) {
+        long minute = Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+        return (int) Math.max(NONE + 1L, Math.min(Integer.MAX_VALUE, minute));
+    }
+
+    private static LocalDateTime fromMinute(int minute) {
+        return minute == NONE ? null : TimetableSnapshot.fromEpochMinute(minute);
+    }
+
+    private static int intern(String value, HashMap<String, Integer> ids, ArrayList<String> strings) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = strings.size();
+            ids.put(value, id);
+            strings.add(value);
+        }
+        return id;
+    }
+
+    private String string(int id) {
+        return id < 0 ? null : strings[id];
+    }
+}
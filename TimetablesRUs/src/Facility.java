@@ -0,0 +1,31 @@
+/**
+ * Facilities a venue can have and an event can require. Sets of facilities are held as
+ * int bit masks, one bit per facility, so matching an event to a venue is a single AND.
+ * An int mask has room for 32 facilities
+ * @author Jamie Gregory
+ * @version 1
+ */
+public enum Facility {
+    DATA_PROJECTOR, ADJUSTABLE_SEATING;
+
+    /**
+     * Returns the bit for this facility
+     * @return the mask holding just this facility
+     */
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Returns the mask holding the given facilities
+     * @param facilities the facilities
+     * @return the bit mask
+     */
+    public static int maskOf(Facility... facilities) {
+        int mask = 0;
+        for (Facility facility : facilities) {
+            mask |= facility.mask();
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,61 @@
+import java.time.LocalDateTime;
+
+/**
+ * A time range in which a venue is free, as found by Timetable.findFreeSlot
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class FreeSlot {
+    private Venue venue;
+    private LocalDateTime startTime;
+    private LocalDateTime endTime;
+
+    /**
+     * Creates a free slot
+     * @param venue the free venue
+     * @param startTime the start of the slot
+     * @param endTime the end of the slot (exclusive)
+     */
+    public FreeSlot(Venue venue, LocalDateTime startTime, LocalDateTime endTime) {
+        this.venue = venue;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * Returns the free venue
+     * @return venue
+     */
+    public Venue getVenue() {
+        return venue;
+    }
+
+    /**
+     * Returns the start of the slot
+     * @return starting time
+     */
+    public LocalDateTime getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the end of the slot
+     * @return ending time
+     */
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Builds a string of the slot information
+     * @return the venue and times
+     */
+    @Override
+    public String toString() {
+        return "FreeSlot{" +
+                "venue=" + venue +
+                ", startTime=" + startTime +
+                ", endTime=" + endTime +
+                '}';
+    }
+}
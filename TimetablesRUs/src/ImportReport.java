@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of adding a batch of events with Timetable.addAll: how many were added,
+ * and which were left out and why
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class ImportReport {
+    /**
+     * Why an event was left out of a batch
+     */
+    public enum Reason {
+        DUPLICATE_ID("duplicate ID"),
+        UNSUITABLE_VENUE("venue does not have the facilities the event requires"),
+        INVALID_TIMES("does not end after it starts"),
+        INVALID_RECURRENCE("longer than the gap between its occurrences"),
+        CLASH("venue or person already booked at that time");
+
+        private String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Returns the reason in words
+         * @return description
+         */
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * An event left out of a batch, with the reason
+     */
+    public static class Rejection {
+        private Event event;
+        private Reason reason;
+
+        Rejection(Event event, Reason reason) {
+            this.event = event;
+            this.reason = reason;
+        }
+
+        /**
+         * Returns the event that was left out
+         * @return event
+         */
+        public Event getEvent() {
+            return event;
+        }
+
+        /**
+         * Returns why the event was left out
+         * @return reason
+         */
+        public Reason getReason() {
+            return reason;
+        }
+
+        /**
+         * Builds a string of the rejection
+         * @return the event ID and the reason
+         */
+        @Override
+        public String toString() {
+            return "Event " + event.getEventId() + ": " + reason.getDescription();
+        }
+    }
+
+    private int added;
+    private ArrayList<Rejection> rejections;
+
+    /**
+     * Creates an empty report
+     */
+    ImportReport() {
+        rejections = new ArrayList<>();
+    }
+
+    void reject(Event event, Reason reason) {
+        rejections.add(new Rejection(event, reason));
+    }
+
+    void setAdded(int added) {
+        this.added = added;
+    }
+
+    /**
+     * Returns the number of events added
+     * @return added
+     */
+    public int getAdded() {
+        return added;
+    }
+
+    /**
+     * Returns the events left out, in the order they were found to be unsuitable: the ones
+     * failing the checks on the batch as a whole first, then the ones that clashed
+     * @return the rejections
+     */
+    public List<Rejection> getRejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+
+    /**
+     * Builds a string of the report information
+     * @return the number added and the rejections
+     */
+    @Override
+    public String toString() {
+        return "ImportReport{" +
+                "added=" + added +
+                ", rejections=" + rejections +
+                '}';
+    }
+}
@@ -1,5 +1,5 @@
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Scanner;
 
 /**
  * Represents Lectures
@@ -10,9 +10,14 @@ import java.util.Scanner;
 
 public class Lecture extends Event{
 
-    private String moduleCode;
     private String lecturerName;
-    private int lecturerNumber;
+    // Package access so that the timetable can re-index the lecture when these change
+    String moduleCode;
+    int lecturerNumber;
+
+    // The lecturer number of a lecture that has not been given one, such as one made with
+    // the no-argument constructor. Such lectures are not checked for lecturer clashes
+    static final int NO_LECTURER = 0;
 
     public Lecture() {
     }
@@ -29,7 +34,7 @@ public class Lecture extends Event{
         this.moduleCode = module;
         this.lecturerName = lecturer;
         this.lecturerNumber = number;
-        adjustableSeatingRequired = adjustibleNeeded;
+        markRequired(Facility.ADJUSTABLE_SEATING, adjustibleNeeded);
     }
 
     /**
@@ -37,7 +42,11 @@ public class Lecture extends Event{
      * @param module desired module code
      */
     public void setModuleCode(String module) {
-        this.moduleCode = module;
+        if (timetable != null) {
+            timetable.changeModule(this, module);
+        } else {
+            this.moduleCode = module;
+        }
     }
 
     /**
@@ -46,6 +55,9 @@ public class Lecture extends Event{
      */
     public void setLecturerName(String name) {
         this.lecturerName = name;
+        if (timetable != null) {
+            timetable.detailsChanged(this);
+        }
     }
 
     /**
@@ -53,7 +65,37 @@ public class Lecture extends Event{
      * @param number desired number
      */
     public void setLecturerNumber(int number) {
-        this.lecturerNumber = number;
+        if (timetable != null) {
+            if (!timetable.changeLecturer(this, number)) {
+                System.err.println("Lecturer " + number + " is already booked at that time");
+            }
+        } else {
+            this.lecturerNumber = number;
+        }
+    }
+
+    /**
+     * gets the module code
+     * @return module code
+     */
+    public String getModuleCode() {
+        return moduleCode;
+    }
+
+    /**
+     * gets the name of the lecturer
+     * @return lecturer name
+     */
+    public String getLecturerName() {
+        return lecturerName;
+    }
+
+    /**
+     * gets the lecturer number
+     * @return lecturer number
+     */
+    public int getLecturerNumber() {
+        return lecturerNumber;
     }
 
     /**
@@ -61,7 +103,7 @@ public class Lecture extends Event{
      * @param required is adjustible seating needed?
      */
     public void setAdjustibleSeating(boolean required) {
-        adjustableSeatingRequired = required;
+        markRequired(Facility.ADJUSTABLE_SEATING, required);
     }
 
     /**
@@ -73,24 +115,26 @@ public class Lecture extends Event{
         if (outfile == null) {
             throw new IllegalArgumentException("outfile must not be null");
         }
+        saveRecurrence(outfile);
         outfile.println("lecture");
         outfile.println(super.eventId);
         writeDateTime(outfile, startTime);
         writeDateTime(outfile, endTime);
 
-        outfile.println(super.projectorNeeded);
+        outfile.println(requires(Facility.DATA_PROJECTOR));
         outfile.println(moduleCode);
         outfile.println(lecturerName);
         outfile.println(lecturerNumber);
-        outfile.println(adjustableSeatingRequired);
+        outfile.println(requires(Facility.ADJUSTABLE_SEATING));
     }
 
     /**
      * loads the lecture information from a given text file
      * @param infile input file
      * @throws IllegalArgumentException thrown if the infile is null
+     * @throws IOException thrown if the file cannot be read
      */
-    public void load(Scanner infile) throws IllegalArgumentException{
+    public void load(TimetableReader infile) throws IllegalArgumentException, IOException {
         if (infile == null) {
             throw new IllegalArgumentException("infile must not be null");
         }
@@ -98,29 +142,34 @@ public class Lecture extends Event{
         startTime = readDateTime(infile);
         endTime = readDateTime(infile);
 
-        super.projectorNeeded = infile.nextBoolean();
+        markRequired(Facility.DATA_PROJECTOR, infile.nextBoolean());
 
         moduleCode = infile.next();
         lecturerName = infile.next();
         lecturerNumber = infile.nextInt();
-        adjustableSeatingRequired = infile.nextBoolean();
+        markRequired(Facility.ADJUSTABLE_SEATING, infile.nextBoolean());
     }
 
     /**
-     * return the lecture information
-     * @return A string containing all important lecture information
+     * writes the lecture information, which is also what toString() returns
+     * @param out the sink to write to
+     * @throws IOException thrown if the sink cannot be written to
      */
     @Override
-    public String toString() {
-        return "Lecture{" +
-                "moduleCode='" + moduleCode + '\'' +
-                ", Lecturer='" + lecturerName + '\'' +
-                ", meetingId=" + super.eventId +
-                ", requiresAdjustibleSeating=" + adjustableSeatingRequired +
-                ", venue=" + venue +
-                ", startTime=" + startTime +
-                ", endTime=" + endTime +
-                '}';
+    public void appendTo(Appendable out) throws IOException {
+        out.append("Lecture{moduleCode='").append(moduleCode).append('\'');
+        out.append(", Lecturer='").append(lecturerName).append('\'');
+        out.append(", meetingId=");
+        appendInt(out, super.eventId);
+        out.append(", requiresAdjustibleSeating=").append(requires(Facility.ADJUSTABLE_SEATING) ? "true" : "false");
+        out.append(", venue=");
+        appendVenue(out, venue);
+        out.append(", startTime=");
+        appendDateTime(out, startTime);
+        out.append(", endTime=");
+        appendDateTime(out, endTime);
+        appendRecurrence(out, recurrence);
+        out.append('}');
     }
 
 
@@ -0,0 +1,288 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only timetable backed by a memory-mapped binary snapshot (see TimetableSnapshot).
+ * Opening only reads the header and the venues. Events are decoded from the mapped file
+ * when they are looked up, using the ID and venue indexes stored in the snapshot, so a
+ * large timetable can be queried without loading it onto the heap.
+ * The events returned are fresh copies that do not belong to any timetable. The few
+ * recurrences are read when the file is opened, and venue queries give the occurrences of
+ * recurring events that fall in the range.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class MappedTimetable {
+    private static final Comparator<Event> BY_START = new Comparator<Event>() {
+        @Override
+        public int compare(Event o1, Event o2) {
+            return o1.startTime.compareTo(o2.startTime);
+        }
+    };
+
+    private ByteBuffer buffer;
+
+    private int stringOffsetsPos;
+    private int stringDataPos;
+    private int eventCount;
+    private int eventsPos;
+    private int idIndexPos;
+    private int venueRunsPos;
+    private int venueRecordsPos;
+
+    private Venue[] venues;
+    private HashMap<String, Integer> venueIds;
+    // The recurrence of each recurring event, by record number
+    private HashMap<Integer, Recurrence> recurrences;
+
+    /**
+     * Maps a snapshot file written by Timetable.saveBinary
+     * @param filename the snapshot file. Must exist.
+     * @throws IOException thrown if the file cannot be mapped or is not a version 2 snapshot
+     */
+    public MappedTimetable(String filename) throws IOException {
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + filename + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.limit() < TimetableSnapshot.HEADER_SIZE || buffer.getInt(0) != TimetableSnapshot.MAGIC) {
+            throw new IOException(filename + " is not a timetable snapshot");
+        }
+        short version = buffer.getShort(4);
+        if (version < 2) {
+            throw new IOException("Snapshot version " + version + " has no indexes. Save it again to upgrade it");
+        } else if (version > TimetableSnapshot.VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        int pos = TimetableSnapshot.HEADER_SIZE;
+        int stringCount = buffer.getInt(pos);
+        stringOffsetsPos = pos + 4;
+        pos = stringOffsetsPos + stringCount * 4;
+        int stringDataLength = buffer.getInt(pos);
+        stringDataPos = pos + 4;
+        pos = stringDataPos + stringDataLength;
+
+        venues = new Venue[buffer.getInt(pos)];
+        venueIds = new HashMap<>();
+        pos += 4;
+        for (int i = 0; i < venues.length; i++) {
+            Venue venue = new Venue(string(buffer.getInt(pos)));
+            int flags = buffer.get(pos + 4);
+            venue.setHasDataProjector((flags & TimetableSnapshot.PROJECTOR) != 0);
+            venue.setHasAdjustibleSeating((flags & TimetableSnapshot.ADJUSTABLE_SEATING) != 0);
+            venues[i] = venue;
+            venueIds.put(venue.getName(), i);
+            pos += TimetableSnapshot.VENUE_RECORD_SIZE;
+        }
+
+        recurrences = new HashMap<>();
+        if (version >= 3) {
+            int count = buffer.getInt(pos);
+            pos += 4;
+            for (int i = 0; i < count; i++) {
+                LocalDate[] exceptions = new LocalDate[buffer.getInt(pos + 12)];
+                for (int j = 0; j < exceptions.length; j++) {
+                    exceptions[j] = LocalDate.ofEpochDay(buffer.getInt(pos + 16 + j * 4));
+                }
+                recurrences.put(buffer.getInt(pos), TimetableSnapshot.recurrence(buffer.getInt(pos + 4),
+                        buffer.getInt(pos + 8), exceptions));
+                pos += 16 + exceptions.length * 4;
+            }
+        }
+
+        eventCount = buffer.getInt(pos);
+        eventsPos = pos + 4;
+        idIndexPos = eventsPos + eventCount * TimetableSnapshot.RECORD_SIZE;
+        venueRunsPos = idIndexPos + eventCount * 4;
+        venueRecordsPos = venueRunsPos + (venues.length + 1) * 4;
+    }
+
+    /**
+     * Returns the number of events in the snapshot
+     * @return the number of events
+     */
+    public int eventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Searches for a given timetabled event
+     * @param eventId the event to search for
+     * @return a copy of the event or else null if not found
+     */
+    public Event searchForEvent(int eventId) {
+        int low = 0;
+        int high = eventCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int record = buffer.getInt(idIndexPos + mid * 4);
+            int id = buffer.getInt(recordPos(record) + 1);
+            if (id < eventId) {
+                low = mid + 1;
+            } else if (id > eventId) {
+                high = mid - 1;
+            } else {
+                return decode(record);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Searches for the given venue
+     * @param name The name of the venue. Must not be null.
+     * @return The venue if found else null
+     */
+    public Venue searchForVenue(String name) {
+        Integer id = venueIds.get(name);
+        return id == null ? null : venues[id];
+    }
+
+    /**
+     * Obtains a copy of the venues
+     * @return A copy of the venues
+     */
+    public Venue[] obtainAllVenues() {
+        return venues.clone();
+    }
+
+    /**
+     * Decodes every event in the snapshot, in saved order
+     * @return copies of all the events
+     */
+    public Event[] obtainAllEvents() {
+        Event[] result = new Event[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            result[i] = decode(i);
+        }
+        return result;
+    }
+
+    /**
+     * Obtains the events booked in a venue that overlap the given time range
+     * @param venue the venue
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return copies of the events, and occurrences of recurring events, in start time order
+     */
+    public Event[] obtainVenueEvents(Venue venue, LocalDateTime from, LocalDateTime to) {
+        ArrayList<Event> found = new ArrayList<>();
+        Integer venueId = venue == null ? null : venueIds.get(venue.getName());
+        if (venueId != null) {
+            int runStart = buffer.getInt(venueRunsPos + venueId * 4);
+            int runEnd = buffer.getInt(venueRunsPos + (venueId + 1) * 4);
+            long fromMinute = Math.floorDiv(from.toEpochSecond(ZoneOffset.UTC), 60);
+            long toMinute = -Math.floorDiv(-to.toEpochSecond(ZoneOffset.UTC), 60);
+
+            // Bookings in a venue do not overlap, so only the one before the first start
+            // at or after 'from' can reach into the range
+            int first = firstStartingAtOrAfter(runStart, runEnd, fromMinute);
+            if (first > runStart) {
+                int record = buffer.getInt(venueRecordsPos + (first - 1) * 4);
+                if (buffer.getInt(recordPos(record) + 9) > fromMinute && !recurrences.containsKey(record)) {
+                    found.add(decode(record));
+                }
+            }
+            for (int i = first; i < runEnd; i++) {
+                int record = buffer.getInt(venueRecordsPos + i * 4);
+                if (buffer.getInt(recordPos(record) + 5) >= toMinute) {
+                    break;
+                }
+                if (!recurrences.containsKey(record)) {
+                    found.add(decode(record));
+                }
+            }
+
+            // Recurring events are held at their first occurrence, so are looked at apart
+            int single = found.size();
+            for (Map.Entry<Integer, Recurrence> entry : recurrences.entrySet()) {
+                if (buffer.getInt(recordPos(entry.getKey()) + 13) == venueId) {
+                    decode(entry.getKey()).addOccurrences(from, to, false, found);
+                }
+            }
+            if (found.size() > single) {
+                Collections.sort(found, BY_START);
+            }
+        }
+        return found.toArray(new Event[found.size()]);
+    }
+
+    /*
+     * Binary searches a venue run for the first booking starting at or after the given minute
+     */
+    private int firstStartingAtOrAfter(int low, int high, long minute) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int record = buffer.getInt(venueRecordsPos + mid * 4);
+            if (buffer.getInt(recordPos(record) + 5) < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /*
+     * Builds an event from a fixed width record
+     */
+    private Event decode(int record) {
+        int pos = recordPos(record);
+        int venueId = buffer.getInt(pos + 13);
+        Event event;
+        try {
+            event = TimetableSnapshot.decode(buffer.get(pos), buffer.getInt(pos + 1), buffer.get(pos + 17),
+                    string(buffer.getInt(pos + 18)), string(buffer.getInt(pos + 22)), buffer.getInt(pos + 26));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt snapshot record " + record, e);
+        }
+        event.startTime = TimetableSnapshot.fromEpochMinute(buffer.getInt(pos + 5));
+        event.endTime = TimetableSnapshot.fromEpochMinute(buffer.getInt(pos + 9));
+        event.recurrence = recurrences.get(record);
+        if (venueId >= 0) {
+            event.venue = venues[venueId];
+        }
+        return event;
+    }
+
+    private int recordPos(int record) {
+        return eventsPos + record * TimetableSnapshot.RECORD_SIZE;
+    }
+
+    /*
+     * Decodes a string from the table. Strings are stored as DataOutput.writeUTF
+     */
+    private String string(int id) {
+        if (id < 0) {
+            return null;
+        }
+        int pos = stringDataPos + buffer.getInt(stringOffsetsPos + id * 4);
+        byte[] bytes = new byte[2 + (buffer.getShort(pos) & 0xFFFF)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos);
+        view.get(bytes);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt snapshot string " + id, e);
+        }
+    }
+}
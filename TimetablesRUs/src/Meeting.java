@@ -1,7 +1,6 @@
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.time.LocalDateTime;
 import java.util.Objects;
-import java.util.Scanner;
 
 /**
  * Represents a meeting
@@ -10,7 +9,8 @@ import java.util.Scanner;
  */
 public class Meeting extends Event {
     private String meetingName;
-    private String organiser;
+    // Package access so that the timetable can re-index the meeting when it changes
+    String organiser;
     private MeetingType meetingType;
 
     /**
@@ -41,6 +41,9 @@ public class Meeting extends Event {
      */
     public void setMeetingName(String meetingName){
         this.meetingName = meetingName;
+        if (timetable != null) {
+            timetable.detailsChanged(this);
+        }
     }
 
     /**
@@ -48,7 +51,13 @@ public class Meeting extends Event {
      * @param organiser desired organiser
      */
     public void setOrganiser(String organiser){
-        this.organiser = organiser;
+        if (timetable != null) {
+            if (!timetable.changeOrganiser(this, organiser)) {
+                System.err.println("Organiser " + organiser + " is already booked at that time");
+            }
+        } else {
+            this.organiser = organiser;
+        }
     }
 
     /**
@@ -57,6 +66,9 @@ public class Meeting extends Event {
      */
     public void setMeetingType(MeetingType meetingType){
         this.meetingType = meetingType;
+        if (timetable != null) {
+            timetable.detailsChanged(this);
+        }
     }
 
     /**
@@ -75,6 +87,14 @@ public class Meeting extends Event {
         return organiser;
     }
 
+    /**
+     * gets the meeting type
+     * @return the meeting type
+     */
+    public MeetingType getMeetingType(){
+        return meetingType;
+    }
+
 
     /**
      * returns a hashcode for venue, starttime and endtime
@@ -82,15 +102,19 @@ public class Meeting extends Event {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(venue, startTime, endTime);
+        // The same value as Objects.hash(venue, startTime, endTime), without the varargs array
+        int result = 31 + Objects.hashCode(venue);
+        result = 31 * result + Objects.hashCode(startTime);
+        return 31 * result + Objects.hashCode(endTime);
     }
 
     /**
      * Loads meeting data from the given text file
-     * @param infile An open scanner on the text file
+     * @param infile An open reader on the text file
      * @exception IllegalArgumentException thrown if infile is null
+     * @exception IOException thrown if the file cannot be read
      */
-    public void load(Scanner infile) throws IllegalArgumentException{
+    public void load(TimetableReader infile) throws IllegalArgumentException, IOException {
         if (infile == null) {
             throw new IllegalArgumentException("infile must not be null");
         }
@@ -98,7 +122,7 @@ public class Meeting extends Event {
         startTime = readDateTime(infile);
         endTime = readDateTime(infile);
 
-        super.projectorNeeded = infile.nextBoolean();
+        markRequired(Facility.DATA_PROJECTOR, infile.nextBoolean());
 
         meetingName = infile.next();
         organiser = infile.next();
@@ -116,33 +140,39 @@ public class Meeting extends Event {
         if (outfile == null) {
             throw new IllegalArgumentException("outfile must not be null");
         }
+        saveRecurrence(outfile);
         outfile.println("meeting");
         outfile.println(super.eventId);
         writeDateTime(outfile, startTime);
         writeDateTime(outfile, endTime);
 
-        outfile.println(super.projectorNeeded);
+        outfile.println(requires(Facility.DATA_PROJECTOR));
         outfile.println(meetingName);
         outfile.println(organiser);
         outfile.println(meetingType);
     }
 
     /**
-     * gives the meeting information
-     * @return a string containing all important meeting information
+     * writes the meeting information, which is also what toString() returns
+     * @param out the sink to write to
+     * @throws IOException thrown if the sink cannot be written to
      */
     @Override
-    public String toString() {
-        return "Meeting{" +
-                "meetingName='" + meetingName + '\'' +
-                ", organiser='" + organiser + '\'' +
-                ", meetingType=" + meetingType +
-                ", meetingId=" + super.eventId +
-                ", requiresDataProjector=" + super.projectorNeeded +
-                ", venue=" + venue +
-                ", startTime=" + startTime +
-                ", endTime=" + endTime +
-                '}';
+    public void appendTo(Appendable out) throws IOException {
+        out.append("Meeting{meetingName='").append(meetingName).append('\'');
+        out.append(", organiser='").append(organiser).append('\'');
+        out.append(", meetingType=").append(meetingType == null ? "null" : meetingType.name());
+        out.append(", meetingId=");
+        appendInt(out, super.eventId);
+        out.append(", requiresDataProjector=").append(requires(Facility.DATA_PROJECTOR) ? "true" : "false");
+        out.append(", venue=");
+        appendVenue(out, venue);
+        out.append(", startTime=");
+        appendDateTime(out, startTime);
+        out.append(", endTime=");
+        appendDateTime(out, endTime);
+        appendRecurrence(out, recurrence);
+        out.append('}');
     }
 
 
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the meeting, lecture and recurring records of a text timetable file on several threads.
+ * The whole file is held in memory. One quick pass counts lines to find where records
+ * start and cuts the text into shards there, then each shard is parsed by its own task
+ * with the usual Meeting and Lecture load methods. Venue names are looked up in a table
+ * shared by all the tasks, which only read it.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class ParallelTimetableLoader {
+    // More shards than threads, so that a slow shard does not leave the others idle
+    private static final int SHARDS_PER_THREAD = 4;
+    // Lines in each kind of record, counting the type line and the venue line
+    private static final int MEETING_LINES = 9;
+    private static final int LECTURE_LINES = 10;
+
+    private ForkJoinPool pool;
+
+    /**
+     * Creates a loader that parses on the common fork-join pool
+     */
+    public ParallelTimetableLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a loader that parses on the given pool
+     * @param pool the pool to run the shards on
+     */
+    public ParallelTimetableLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Parses the event records in part of a text timetable file
+     * @param text the file contents
+     * @param from the index of the first record, just after the venues
+     * @param to the index after the last character
+     * @param venues the venues by name, used to set each event's venue
+     * @return the events in the order they appear in the file. Records of an unknown type
+     * are left out, as Timetable.load does
+     * @throws IOException thrown if a record cannot be read
+     */
+    List<Event> parse(final char[] text, int from, int to, final Map<String, Venue> venues) throws IOException {
+        int[] cuts = split(text, from, to, pool.getParallelism() * SHARDS_PER_THREAD);
+
+        ArrayList<Callable<List<Event>>> shards = new ArrayList<>();
+        for (int i = 0; i + 1 < cuts.length; i++) {
+            final int start = cuts[i];
+            final int end = cuts[i + 1];
+            shards.add(new Callable<List<Event>>() {
+                @Override
+                public List<Event> call() throws IOException {
+                    return parseShard(new TimetableReader(text, start, end), venues);
+                }
+            });
+        }
+
+        ArrayList<Event> events = new ArrayList<>();
+        try {
+            for (Future<List<Event>> shard : pool.invokeAll(shards)) {
+                events.addAll(shard.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Loading failed", e.getCause());
+        }
+        return events;
+    }
+
+    /*
+     * Reads the records of one shard
+     */
+    private static List<Event> parseShard(TimetableReader infile, Map<String, Venue> venues) throws IOException {
+        ArrayList<Event> events = new ArrayList<>();
+        while (infile.hasNext()) {
+            Event event = Timetable.readEvent(infile.next(), infile);
+            String venueName = infile.next();
+            if (event != null) {
+                event.venue = Timetable.venueNamed(venueName, venues.get(venueName));
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /*
+     * Returns the shard boundaries: from, the start of some records, then to. Records
+     * are walked by counting lines, so no value is parsed. If a record of an unknown type
+     * turns up, the rest of the file goes into the last shard, where it is read exactly
+     * as Timetable.load would read it
+     */
+    private static int[] split(char[] text, int from, int to, int shards) {
+        ArrayList<Integer> cuts = new ArrayList<>();
+        cuts.add(from);
+        long shardSize = Math.max(1, (to - from) / Math.max(1, shards));
+        long nextCut = from + shardSize;
+        int pos = from;
+        while (pos < to) {
+            if (pos >= nextCut) {
+                cuts.add(pos);
+                nextCut = pos + shardSize;
+            }
+            if (startsWith(text, pos, to, "recurring")) {
+                // The recurrence is followed by the record of the event itself
+                pos = skipRecurrence(text, pos, to);
+                if (pos < 0) {
+                    break;
+                }
+            }
+            int lines;
+            if (startsWith(text, pos, to, "meeting")) {
+                lines = MEETING_LINES;
+            } else if (startsWith(text, pos, to, "lecture")) {
+                lines = LECTURE_LINES;
+            } else {
+                break;
+            }
+            for (int i = 0; i < lines; i++) {
+                pos = skipLine(text, pos, to);
+            }
+        }
+        cuts.add(to);
+
+        int[] result = new int[cuts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = cuts.get(i);
+        }
+        return result;
+    }
+
+    /*
+     * Skips the "recurring" line and the recurrence after it: the interval, the count,
+     * the number of exception dates and the dates. Returns the start of the line after,
+     * or -1 if the number of dates cannot be read
+     */
+    private static int skipRecurrence(char[] text, int pos, int to) {
+        for (int i = 0; i < 3; i++) {
+            pos = skipLine(text, pos, to);
+        }
+        int exceptions = 0;
+        int digits = 0;
+        while (pos < to && text[pos] >= '0' && text[pos] <= '9' && digits < 9) {
+            exceptions = exceptions * 10 + text[pos++] - '0';
+            digits++;
+        }
+        if (digits == 0) {
+            return -1;
+        }
+        for (int i = 0; i <= exceptions; i++) {
+            pos = skipLine(text, pos, to);
+        }
+        return pos;
+    }
+
+    /*
+     * Checks whether the line starting at pos is exactly the given word
+     */
+    private static boolean startsWith(char[] text, int pos, int to, String word) {
+        int end = pos + word.length();
+        if (end > to || end < to && text[end] != '\n' && text[end] != '\r') {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (text[pos + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the index of the start of the next line, treating "\r\n", "\n" and "\r"
+     * as line endings just as TimetableReader does
+     */
+    private static int skipLine(char[] text, int pos, int to) {
+        while (pos < to && text[pos] != '\n' && text[pos] != '\r') {
+            pos++;
+        }
+        if (pos < to) {
+            char c = text[pos++];
+            if (c == '\r' && pos < to && text[pos] == '\n') {
+                pos++;
+            }
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,266 @@
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of timetable query results, used by Timetable. When the cache is full
+ * the oldest result is dropped, unless it has been used since the cache last got round
+ * to it, in which case it is given a second chance. This is the clock approximation of
+ * least recently used, and it means a hit only sets a flag rather than reordering the
+ * cache. Each result is filed under what it is about:
+ * the whole timetable, a venue, a lecturer, an organiser or a set of modules. When an
+ * event changes, only the results about the same things whose time range the event
+ * falls in are dropped; everything else stays cached.
+ * Every method holds the cache's lock, so read-only Timetable queries on several
+ * threads can share it.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class QueryCache {
+    /**
+     * What a query is about
+     */
+    enum Kind {
+        // Events that start in the range
+        EVENTS, MODULES,
+        // Events that overlap the range
+        VENUE, LECTURER, ORGANISER
+    }
+
+    private int capacity;
+    // In the order the results were cached, oldest first
+    private LinkedHashMap<Query, Result> results;
+    // The cached queries filed under each thing they are about, for invalidation
+    private HashMap<List<Object>, HashSet<Query>> queriesBySubject;
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    /**
+     * Creates an empty cache
+     * @param capacity the most results to keep
+     */
+    public QueryCache(int capacity) {
+        this.capacity = capacity;
+        results = new LinkedHashMap<>();
+        queriesBySubject = new HashMap<>();
+    }
+
+    /**
+     * Returns the number of queries answered from the cache
+     * @return hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of queries that had to be worked out
+     * @return misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of results dropped because an event in them changed
+     * @return invalidations
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Returns the number of results held
+     * @return size
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Looks up the result of a query, counting a hit or a miss
+     * @param query the query
+     * @return the cached result, which must not be changed, or null if there is none
+     */
+    synchronized Event[] get(Query query) {
+        Result result = results.get(query);
+        if (result == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        result.used = true;
+        return result.found;
+    }
+
+    /**
+     * Caches the result of a query
+     * @param query the query
+     * @param found the result, which must not be changed afterwards
+     */
+    synchronized void put(Query query, Event[] found) {
+        if (capacity <= 0) {
+            return;
+        }
+        Result cached = results.get(query);
+        if (cached != null) {
+            cached.found = found;
+            return;
+        }
+        while (results.size() >= capacity) {
+            evict();
+        }
+        results.put(query, new Result(found));
+        for (List<Object> subject : query.subjects()) {
+            HashSet<Query> queries = queriesBySubject.get(subject);
+            if (queries == null) {
+                queries = new HashSet<>();
+                queriesBySubject.put(subject, queries);
+            }
+            queries.add(query);
+        }
+    }
+
+    /*
+     * Goes round the results from the oldest, moving those used since the last time
+     * round to the back, until one that has not been used is found and dropped
+     */
+    private void evict() {
+        while (true) {
+            Iterator<Map.Entry<Query, Result>> oldest = results.entrySet().iterator();
+            Map.Entry<Query, Result> entry = oldest.next();
+            Query query = entry.getKey();
+            Result result = entry.getValue();
+            oldest.remove();
+            if (!result.used) {
+                unfile(query);
+                return;
+            }
+            result.used = false;
+            results.put(query, result);
+        }
+    }
+
+    /**
+     * Drops the results about something that an event in the given time range would
+     * appear in
+     * @param kind what the results are about
+     * @param subject the venue ID, lecturer number, organiser or module code, or null
+     *                for EVENTS
+     * @param start the start of the event
+     * @param end the end of the event
+     */
+    synchronized void invalidate(Kind kind, Object subject, LocalDateTime start, LocalDateTime end) {
+        HashSet<Query> queries = queriesBySubject.get(Arrays.asList(kind, subject));
+        if (queries == null) {
+            return;
+        }
+        for (Query query : new ArrayList<>(queries)) {
+            if (query.includes(start, end)) {
+                results.remove(query);
+                unfile(query);
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Drops every result, without counting invalidations
+     */
+    synchronized void clear() {
+        results.clear();
+        queriesBySubject.clear();
+    }
+
+    private void unfile(Query query) {
+        for (List<Object> subject : query.subjects()) {
+            HashSet<Query> queries = queriesBySubject.get(subject);
+            if (queries != null) {
+                queries.remove(query);
+                if (queries.isEmpty()) {
+                    queriesBySubject.remove(subject);
+                }
+            }
+        }
+    }
+
+    /**
+     * A cached result, and whether it has been used since the clock last passed it
+     */
+    private static class Result {
+        private Event[] found;
+        private boolean used;
+
+        Result(Event[] found) {
+            this.found = found;
+        }
+    }
+
+    /**
+     * A query: what it is about and the time range it covers
+     */
+    static class Query {
+        private Kind kind;
+        // The venue ID, lecturer number or organiser, a set of module codes, or null
+        private Object subject;
+        private LocalDateTime from;
+        private LocalDateTime to;
+
+        Query(Kind kind, Object subject, LocalDateTime from, LocalDateTime to) {
+            this.kind = kind;
+            this.subject = subject;
+            this.from = from;
+            this.to = to;
+        }
+
+        /*
+         * The things this query is filed under: one per module for a module query
+         */
+        private List<List<Object>> subjects() {
+            if (kind == Kind.MODULES) {
+                List<List<Object>> subjects = new ArrayList<>();
+                for (Object moduleCode : (Collection<?>) subject) {
+                    subjects.add(Arrays.asList(kind, moduleCode));
+                }
+                return subjects;
+            }
+            return Collections.singletonList(Arrays.asList(kind, subject));
+        }
+
+        /*
+         * Checks whether an event in the given time range would be in the result
+         */
+        private boolean includes(LocalDateTime start, LocalDateTime end) {
+            if (kind == Kind.EVENTS || kind == Kind.MODULES) {
+                return !start.isBefore(from) && start.isBefore(to);
+            }
+            return start.isBefore(to) && end.isAfter(from);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Query query = (Query) o;
+            return kind == query.kind && (subject == null ? query.subject == null : subject.equals(query.subject))
+                    && from.equals(query.from) && to.equals(query.to);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = kind.hashCode();
+            result = 31 * result + (subject == null ? 0 : subject.hashCode());
+            result = 31 * result + from.hashCode();
+            return 31 * result + to.hashCode();
+        }
+    }
+}
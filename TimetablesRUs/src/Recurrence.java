@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * How an event repeats: every week or every few weeks, a given number of times, except on
+ * some dates such as reading week. A recurring event is stored once, with the times of its
+ * first occurrence, and its other occurrences are only worked out when a query needs them.
+ * Recurrences are immutable, so one can be shared by many events
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class Recurrence {
+    private static final long SECONDS_PER_WEEK = 7 * 24 * 60 * 60;
+    // The most occurrences a recurrence can have, ten years of a weekly event. Clash checks
+    // and cache invalidation visit every occurrence, so a count read from a damaged file
+    // must not be able to make them run for ever
+    static final int MAX_COUNT = 520;
+
+    private int intervalWeeks;
+    private int count;
+    private TreeSet<LocalDate> exceptions;
+
+    /**
+     * Creates a recurrence
+     * @param intervalWeeks the weeks between occurrences: 1 for weekly, 2 for fortnightly
+     * @param count the number of occurrences, counting the ones on exception dates, up to
+     *              MAX_COUNT
+     * @param exceptions the dates on which the event does not take place
+     * @throws IllegalArgumentException thrown if the interval or count is less than one, or
+     * the count is more than MAX_COUNT
+     */
+    public Recurrence(int intervalWeeks, int count, Collection<LocalDate> exceptions) throws IllegalArgumentException {
+        if (intervalWeeks < 1) {
+            throw new IllegalArgumentException("interval: " + intervalWeeks + " must be at least one week");
+        }
+        if (count < 1 || count > MAX_COUNT) {
+            throw new IllegalArgumentException("count: " + count + " must be from one to " + MAX_COUNT);
+        }
+        this.intervalWeeks = intervalWeeks;
+        this.count = count;
+        this.exceptions = new TreeSet<>(exceptions);
+    }
+
+    /**
+     * Creates a weekly recurrence
+     * @param count the number of weeks
+     * @param exceptions the dates on which the event does not take place
+     * @return the recurrence
+     */
+    public static Recurrence weekly(int count, LocalDate... exceptions) {
+        return new Recurrence(1, count, Arrays.asList(exceptions));
+    }
+
+    /**
+     * Creates a fortnightly recurrence
+     * @param count the number of occurrences
+     * @param exceptions the dates on which the event does not take place
+     * @return the recurrence
+     */
+    public static Recurrence fortnightly(int count, LocalDate... exceptions) {
+        return new Recurrence(2, count, Arrays.asList(exceptions));
+    }
+
+    /**
+     * Returns the same recurrence with one more exception date, for cancelling a single
+     * occurrence
+     * @param date the date to skip
+     * @return the new recurrence
+     */
+    public Recurrence except(LocalDate date) {
+        TreeSet<LocalDate> dates = new TreeSet<>(exceptions);
+        dates.add(date);
+        return new Recurrence(intervalWeeks, count, dates);
+    }
+
+    /**
+     * Returns the weeks between occurrences
+     * @return the interval
+     */
+    public int getIntervalWeeks() {
+        return intervalWeeks;
+    }
+
+    /**
+     * Returns the number of occurrences, counting the ones on exception dates
+     * @return the count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the dates on which the event does not take place
+     * @return the dates, in order
+     */
+    public SortedSet<LocalDate> getExceptions() {
+        return Collections.unmodifiableSortedSet(exceptions);
+    }
+
+    /**
+     * Checks whether an event of the given length fits between its occurrences, so that
+     * they never overlap one another
+     * @param length the length of the event
+     * @return true if it fits
+     */
+    boolean fits(Duration length) {
+        return length.getSeconds() <= intervalWeeks * SECONDS_PER_WEEK;
+    }
+
+    /**
+     * Returns the start of an occurrence
+     * @param first the start of the first occurrence
+     * @param k the number of the occurrence, from 0, counting the ones on exception dates
+     * @return the start
+     */
+    LocalDateTime start(LocalDateTime first, int k) {
+        return first.plusWeeks((long) k * intervalWeeks);
+    }
+
+    /**
+     * Checks whether the occurrence starting at the given time is on an exception date
+     * @param start the start of the occurrence
+     * @return true if the event does not take place then
+     */
+    boolean skips(LocalDateTime start) {
+        return !exceptions.isEmpty() && exceptions.contains(start.toLocalDate());
+    }
+
+    /**
+     * Returns the number of the first occurrence starting at or after a given time
+     * @param first the start of the first occurrence
+     * @param time the time
+     * @return the occurrence number, or the count if every occurrence starts before the time
+     */
+    int firstStartingFrom(LocalDateTime first, LocalDateTime time) {
+        return firstAfter(first, time, true);
+    }
+
+    /**
+     * Returns the number of the first occurrence ending after a given time
+     * @param first the start of the first occurrence
+     * @param length the length of the event
+     * @param time the time
+     * @return the occurrence number, or the count if every occurrence ends by the time
+     */
+    int firstEndingAfter(LocalDateTime first, Duration length, LocalDateTime time) {
+        return firstAfter(first.plus(length), time, false);
+    }
+
+    /*
+     * Finds the first k for which anchor plus k intervals is after the time, or at it if
+     * inclusive. Occurrences are a whole number of weeks apart, so k is estimated by
+     * division and then corrected, rather than found by stepping through the weeks
+     */
+    private int firstAfter(LocalDateTime anchor, LocalDateTime time, boolean inclusive) {
+        long periods = Duration.between(anchor, time).getSeconds() / (intervalWeeks * SECONDS_PER_WEEK);
+        int k = (int) Math.max(0, Math.min(count, periods));
+        while (k > 0 && isAfter(start(anchor, k - 1), time, inclusive)) {
+            k--;
+        }
+        while (k < count && !isAfter(start(anchor, k), time, inclusive)) {
+            k++;
+        }
+        return k;
+    }
+
+    private static boolean isAfter(LocalDateTime a, LocalDateTime b, boolean inclusive) {
+        return inclusive ? !a.isBefore(b) : a.isAfter(b);
+    }
+
+    /**
+     * Reads a recurrence written by save
+     * @param infile the reader, positioned after the "recurring" line
+     * @return the recurrence
+     * @throws IOException thrown if the file cannot be read
+     * @throws IllegalArgumentException thrown if the interval or count is out of range
+     */
+    static Recurrence load(TimetableReader infile) throws IOException {
+        int intervalWeeks = infile.nextInt();
+        int count = infile.nextInt();
+        int numExceptions = infile.nextInt();
+        LocalDate[] exceptions = new LocalDate[numExceptions];
+        for (int i = 0; i < numExceptions; i++) {
+            exceptions[i] = LocalDate.parse(infile.next());
+        }
+        return new Recurrence(intervalWeeks, count, Arrays.asList(exceptions));
+    }
+
+    /**
+     * Writes the recurrence to a text file: the interval, the count, the number of
+     * exception dates and then the dates, one per line
+     * @param outfile the output file
+     */
+    void save(PrintWriter outfile) {
+        outfile.println(intervalWeeks);
+        outfile.println(count);
+        outfile.println(exceptions.size());
+        for (LocalDate date : exceptions) {
+            outfile.println(date);
+        }
+    }
+
+    /**
+     * Checks whether another recurrence has the same pattern
+     * @param o an input object
+     * @return true if the interval, count and exception dates are the same
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Recurrence that = (Recurrence) o;
+        return intervalWeeks == that.intervalWeeks && count == that.count && exceptions.equals(that.exceptions);
+    }
+
+    /**
+     * returns a hashcode for the interval, count and exception dates
+     * @return hashcode
+     */
+    @Override
+    public int hashCode() {
+        return (intervalWeeks * 31 + count) * 31 + exceptions.hashCode();
+    }
+
+    /**
+     * Builds a string of the recurrence information
+     * @return the interval, count and exception dates
+     */
+    @Override
+    public String toString() {
+        return "Recurrence{" +
+                "intervalWeeks=" + intervalWeeks +
+                ", count=" + count +
+                ", exceptions=" + exceptions +
+                '}';
+    }
+}
@@ -0,0 +1,258 @@
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The bookings of a single resource (such as a venue), ordered by start time.
+ * Bookings in a schedule never overlap, so the booking that starts last before a
+ * given end time is the only one that can clash with a new booking. This makes
+ * clash checks and range queries O(log n).
+ * Recurring events are kept apart, once each, and their occurrences are worked out as
+ * each check or query needs them, so they add O(number of recurring events) to each.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class Schedule {
+    private static final Comparator<Event> BY_START = new Comparator<Event>() {
+        @Override
+        public int compare(Event o1, Event o2) {
+            return o1.startTime.compareTo(o2.startTime);
+        }
+    };
+
+    private TreeMap<LocalDateTime, Event> bookings;
+    private ArrayList<Series> recurring;
+
+    /**
+     * Creates an empty schedule
+     */
+    public Schedule() {
+        bookings = new TreeMap<>();
+        recurring = new ArrayList<>();
+    }
+
+    /**
+     * Finds a booking that overlaps the given time range
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @param ignore an event that should not count as a clash, or null
+     * @return the clashing event, or the clashing occurrence of a recurring event, or null
+     * if the range is free
+     */
+    public Event findClash(LocalDateTime start, LocalDateTime end, Event ignore) {
+        Map.Entry<LocalDateTime, Event> entry = bookings.lowerEntry(end);
+        if (entry != null && entry.getValue() == ignore) {
+            entry = bookings.lowerEntry(entry.getKey());
+        }
+        if (entry != null && entry.getValue().endTime.isAfter(start)) {
+            return entry.getValue();
+        }
+        return findRecurringClash(start, end, ignore);
+    }
+
+    /*
+     * Finds an occurrence of a recurring booking that overlaps the given time range
+     */
+    private Event findRecurringClash(LocalDateTime start, LocalDateTime end, Event ignore) {
+        if (recurring.isEmpty()) {
+            return null;
+        }
+        long from = start.toEpochSecond(ZoneOffset.UTC);
+        long to = end.toEpochSecond(ZoneOffset.UTC) + (end.getNano() > 0 ? 1 : 0);
+        for (Series series : recurring) {
+            if (series.event != ignore && series.mayOverlap(from, to)) {
+                LocalDateTime occurrence = series.event.findOccurrence(start, end);
+                if (occurrence != null) {
+                    return series.event.occurrence(occurrence);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds a booking that overlaps any occurrence of a recurring time range
+     * @param start the start of the first occurrence
+     * @param end the end of the first occurrence (exclusive)
+     * @param recurrence how the range repeats, or null if it does not
+     * @param ignore an event that should not count as a clash, or null
+     * @return the clashing event, or the clashing occurrence of a recurring event, or null
+     * if every occurrence is free
+     */
+    public Event findClash(LocalDateTime start, LocalDateTime end, Recurrence recurrence, Event ignore) {
+        if (recurrence == null) {
+            return findClash(start, end, ignore);
+        }
+        Duration length = Duration.between(start, end);
+        for (int k = 0; k < recurrence.getCount(); k++) {
+            LocalDateTime occurrence = recurrence.start(start, k);
+            if (!recurrence.skips(occurrence)) {
+                Event clash = findClash(occurrence, occurrence.plus(length), ignore);
+                if (clash != null) {
+                    return clash;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Books an event into the schedule. A recurring event is booked at every occurrence
+     * @param event an event with a start and end time
+     * @return true if booked else false if it clashes with an existing booking. An event
+     * that does not end after it starts cannot clash, but is still refused if a booking
+     * starts at the same time, rather than replacing it
+     */
+    public boolean book(Event event) {
+        if (findClash(event.startTime, event.endTime, event.recurrence, null) != null) {
+            return false;
+        }
+        if (event.recurrence != null) {
+            recurring.add(new Series(event));
+        } else if (bookings.putIfAbsent(event.startTime, event) != null) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes an event from the schedule
+     * @param event the booked event
+     * @return true if removed else false if it was not booked
+     */
+    public boolean cancel(Event event) {
+        if (event.recurrence != null) {
+            Iterator<Series> it = recurring.iterator();
+            while (it.hasNext()) {
+                if (it.next().event == event) {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+        return bookings.remove(event.startTime, event);
+    }
+
+    /**
+     * Finds every booking that overlaps the given time range
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the overlapping bookings, and occurrences of recurring events, in start time order
+     */
+    public ArrayList<Event> between(LocalDateTime from, LocalDateTime to) {
+        ArrayList<Event> result = new ArrayList<>();
+        // Only the booking starting at or before 'from' can reach into the range from the left
+        Map.Entry<LocalDateTime, Event> first = bookings.floorEntry(from);
+        if (first != null && first.getValue().endTime.isAfter(from)) {
+            result.add(first.getValue());
+        }
+        result.addAll(bookings.subMap(from, false, to, false).values());
+        if (!recurring.isEmpty()) {
+            int single = result.size();
+            for (Series series : recurring) {
+                series.event.addOccurrences(from, to, false, result);
+            }
+            if (result.size() > single) {
+                Collections.sort(result, BY_START);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the earliest start time at which a booking of the given length would fit.
+     * Only the gaps between bookings from 'from' onwards are looked at, so this is
+     * O(log n) plus the number of bookings too close together to fit in between.
+     * Each gap found is then checked against the recurring events, and the search
+     * carries on after any occurrence in the way
+     * @param from the earliest allowed start
+     * @param latestStart the latest allowed start
+     * @param length the length of the booking
+     * @return the start time, or null if there is no such gap
+     */
+    public LocalDateTime findGap(LocalDateTime from, LocalDateTime latestStart, Duration length) {
+        LocalDateTime start = from;
+        while (true) {
+            start = findSingleGap(start, latestStart, length);
+            if (start == null || recurring.isEmpty()) {
+                return start;
+            }
+            Event clash = findRecurringClash(start, start.plus(length), null);
+            if (clash == null) {
+                return start;
+            }
+            start = clash.endTime;
+        }
+    }
+
+    /*
+     * Finds the earliest gap between the bookings that are not recurring
+     */
+    private LocalDateTime findSingleGap(LocalDateTime from, LocalDateTime latestStart, Duration length) {
+        LocalDateTime start = from;
+        // A booking starting before 'from' may still be running
+        Map.Entry<LocalDateTime, Event> running = bookings.lowerEntry(from);
+        if (running != null && running.getValue().endTime.isAfter(start)) {
+            start = running.getValue().endTime;
+        }
+        for (Event booked : bookings.tailMap(start, true).values()) {
+            if (start.isAfter(latestStart)) {
+                return null;
+            }
+            if (!booked.startTime.isBefore(start.plus(length))) {
+                return start;
+            }
+            if (booked.endTime.isAfter(start)) {
+                start = booked.endTime;
+            }
+        }
+        return start.isAfter(latestStart) ? null : start;
+    }
+
+    /**
+     * Returns the number of bookings
+     * @return the number of booked events, counting each recurring event once
+     */
+    public int size() {
+        return bookings.size() + recurring.size();
+    }
+
+    /*
+     * A recurring booking, with its times in epoch-seconds so that most clash checks can
+     * rule it out with a little arithmetic before working out any dates
+     */
+    private static class Series {
+        private Event event;
+        private long first;
+        private long length;
+        private long period;
+        private int count;
+
+        Series(Event event) {
+            this.event = event;
+            first = event.startTime.toEpochSecond(ZoneOffset.UTC);
+            Duration duration = Duration.between(event.startTime, event.endTime);
+            length = duration.getSeconds() + (duration.getNano() > 0 ? 1 : 0);
+            period = event.recurrence.getIntervalWeeks() * 7L * 24 * 60 * 60;
+            count = event.recurrence.getCount();
+        }
+
+        /*
+         * Checks whether an occurrence could overlap a range of epoch-seconds. Times are
+         * rounded outwards to whole seconds and exception dates are not looked at, so this
+         * can wrongly say yes but never wrongly say no
+         */
+        boolean mayOverlap(long from, long to) {
+            // The first occurrence that, give or take a second, ends after 'from'
+            long k = Math.max(0, Math.floorDiv(from - first - length - 1, period) + 1);
+            return k < count && first + k * period < to;
+        }
+    }
+}
@@ -1,8 +1,29 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.time.Duration;
 import java.time.LocalDateTime;
 
 /**
@@ -13,36 +34,228 @@ import java.time.LocalDateTime;
  */
 public class Timetable {
 
-    private ArrayList<Event> events;
+    // Display order: by start time, then venue name. The ID breaks any remaining tie,
+    // so that two different events never compare as equal
+    private static final Comparator<Event> DISPLAY_ORDER = new Comparator<Event>() {
+        @Override
+        public int compare(Event o1, Event o2) {
+            int dComparison = compareNullsFirst(o1.startTime, o2.startTime);
+            if (dComparison != 0) {
+                return dComparison;
+            }
+
+            int vComparison = compareNullsFirst(o1.venue == null ? null : o1.venue.getName(),
+                    o2.venue == null ? null : o2.venue.getName());
+            if (vComparison != 0) {
+                return vComparison;
+            }
+            return Integer.compare(o1.eventId, o2.eventId);
+        }
+    };
+
+    private static final int RENDER_FLUSH_EVERY = 1000;
+    private static final int QUERY_CACHE_SIZE = 1024;
+
+    // Keyed by event ID
+    private HashMap<Integer, Event> events;
+    // The same events, kept in display order as they are added, moved and removed
+    private TreeSet<Event> orderedEvents;
+    // The recurring events among them. Each is held once, at its first occurrence, and
+    // range queries work out the occurrences that fall in the range
+    private TreeSet<Event> recurringEvents;
     private ArrayList<Venue> venues;
+    // Copies of the events in display order and of the venues, shared by every snapshot
+    // taken until the next change. Null when a change has made them stale
+    private Event[] eventSnapshot;
+    private Venue[] venueSnapshot;
+    // The events as primitive columns for reports, built when first asked for and
+    // dropped at the next change
+    private EventColumns columns;
+    // The venue registry. Every venue this timetable meets, whether added or just booked
+    // by an event, gets a dense ID: its index in venuesById and venueSchedules
+    private HashMap<String, Integer> venueIds;
+    private ArrayList<Venue> venuesById;
+    // The IDs of the venues that have been added, rather than only booked
+    private BitSet listedVenues;
+    // Inverted index: for each Facility, the IDs of the added venues that have it.
+    // Built when first needed, then kept up to date as venues tell the timetable they
+    // are registered with that their facilities have changed
+    private BitSet[] venuesWithFacility;
+    // The bookings held in each venue, by venue ID, used to reject double bookings
+    private ArrayList<Schedule> venueSchedules;
+    // The bookings of each person, used to stop anyone being in two places at once:
+    // lecturers by lecturer number and meeting organisers by name. Lectures with no
+    // lecturer number are not booked here
+    private HashMap<Integer, Schedule> lecturerSchedules;
+    private HashMap<String, Schedule> organiserSchedules;
+    // The lectures of each module, by module code, in display order. Unlike venues and
+    // people, a module can have lectures at the same time, for different groups.
+    // Recurring lectures are indexed apart, so that the ranges of the first index only
+    // hold lectures that take place once
+    private HashMap<String, TreeSet<Event>> moduleLectures;
+    private HashMap<String, TreeSet<Event>> moduleSeries;
+    // The results of recent range queries, dropped as events in them change
+    private QueryCache queryCache;
+    // Where changes are logged between saves, if anywhere
+    private TimetableJournal journal;
 
     /**
      * Initialises the timetable meetings and venues
      */
     public Timetable() {
-        events = new ArrayList<>();
+        events = new HashMap<>();
+        orderedEvents = new TreeSet<>(DISPLAY_ORDER);
+        recurringEvents = new TreeSet<>(DISPLAY_ORDER);
         venues = new ArrayList<>();
+        venueIds = new HashMap<>();
+        venuesById = new ArrayList<>();
+        listedVenues = new BitSet();
+        venueSchedules = new ArrayList<>();
+        lecturerSchedules = new HashMap<>();
+        organiserSchedules = new HashMap<>();
+        moduleLectures = new HashMap<>();
+        moduleSeries = new HashMap<>();
+        queryCache = new QueryCache(QUERY_CACHE_SIZE);
     }
 
     /**
      * Add a timetabled meeting.
      *
-     * @param event A non-null, unique meeting object.
-     * @return true if meeting added else false if the meeting already exists
-     * @throws IllegalArgumentException is thrown if meeting is null
+     * @param event A non-null meeting object with a unique event ID.
+     * @return true if meeting added else false if an event with the same ID already exists,
+     * or its venue or the person running it is already booked for an overlapping time,
+     * at any of its occurrences if it is recurring
+     * @throws IllegalArgumentException is thrown if meeting is null, does not end after it
+     * starts, or is recurring and longer than the gap between its occurrences
      */
     public boolean add(Event event) throws IllegalArgumentException {
         boolean success = false;
         if (event == null) {
             throw new IllegalArgumentException("The meeting must not be null");
         }
-        if (!events.contains(event)) {
-            events.add(event);
+        Event.checkTimes(event.startTime, event.endTime);
+        Event.checkRecurrence(event.startTime, event.endTime, event.recurrence);
+        if (!events.containsKey(event.eventId) && book(event)) {
+            events.put(event.eventId, event);
+            orderedEvents.add(event);
+            if (event.recurrence != null) {
+                recurringEvents.add(event);
+            }
+            indexModule(event);
+            touched(event);
+            event.timetable = this;
             success = true;
+            if (journal != null) {
+                try {
+                    journal.recordAdd(event);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
         }
         return success;
     }
 
+    /**
+     * Adds a batch of events, such as a nightly import from another system. The batch is
+     * checked as a whole first, for IDs already in use or repeated in the batch, venues
+     * without the facilities an event requires, events that do not end after they start
+     * and recurring events longer than the gap between their occurrences. The events that pass are booked in the order given, so
+     * of two that clash the first is kept. They are then sorted once and indexed together,
+     * and the cached query results are dropped once rather than event by event.
+     * Nothing is printed: the events left out are listed in the report
+     * @param batch the events, none of them null
+     * @return the number of events added and the ones left out, with the reasons
+     * @throws IllegalArgumentException thrown if the batch or an event in it is null
+     * @throws UncheckedIOException thrown if the journal cannot be written. The events
+     * have all been added by then, as with add()
+     */
+    public ImportReport addAll(Collection<? extends Event> batch) throws IllegalArgumentException {
+        if (batch == null) {
+            throw new IllegalArgumentException("The batch must not be null");
+        }
+        for (Event event : batch) {
+            if (event == null) {
+                throw new IllegalArgumentException("The meeting must not be null");
+            }
+        }
+
+        ImportReport report = new ImportReport();
+        HashSet<Integer> ids = new HashSet<>();
+        ArrayList<Event> added = new ArrayList<>(batch.size());
+        for (Event event : batch) {
+            ImportReport.Reason reason = check(event, ids);
+            if (reason == null && !book(event)) {
+                reason = ImportReport.Reason.CLASH;
+            }
+            if (reason == null) {
+                ids.add(event.eventId);
+                added.add(event);
+            } else {
+                report.reject(event, reason);
+            }
+        }
+
+        Collections.sort(added, DISPLAY_ORDER);
+        for (Event event : added) {
+            events.put(event.eventId, event);
+            orderedEvents.add(event);
+            if (event.recurrence != null) {
+                recurringEvents.add(event);
+            }
+            indexModule(event);
+            event.timetable = this;
+        }
+        if (!added.isEmpty()) {
+            queryCache.clear();
+            eventSnapshot = null;
+            columns = null;
+        }
+        // Logged only once every index holds the whole batch, so that a failed write
+        // leaves the timetable consistent, as add() does, rather than with events booked
+        // in the schedules but missing from the other indexes
+        if (journal != null) {
+            try {
+                for (Event event : added) {
+                    journal.recordAdd(event);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        report.setAdded(added.size());
+        return report;
+    }
+
+    /*
+     * The checks addAll makes on each event before booking it. Returns why the event
+     * cannot be added, or null if it can. ids holds the IDs of the events added so far
+     */
+    private ImportReport.Reason check(Event event, HashSet<Integer> ids) {
+        if (events.containsKey(event.eventId) || ids.contains(event.eventId)) {
+            return ImportReport.Reason.DUPLICATE_ID;
+        }
+        if (event.venue != null) {
+            // The venue this timetable knows by that name is the one that gets booked
+            Integer id = venueIds.get(event.venue.getName());
+            Venue known = id == null ? event.venue : venuesById.get(id);
+            if (!event.canUseVenue(event.venue) || !event.canUseVenue(known)) {
+                return ImportReport.Reason.UNSUITABLE_VENUE;
+            }
+        }
+        try {
+            Event.checkTimes(event.startTime, event.endTime);
+        } catch (IllegalArgumentException e) {
+            return ImportReport.Reason.INVALID_TIMES;
+        }
+        try {
+            Event.checkRecurrence(event.startTime, event.endTime, event.recurrence);
+        } catch (IllegalArgumentException e) {
+            return ImportReport.Reason.INVALID_RECURRENCE;
+        }
+        return null;
+    }
+
     /**
      * Add a venue to the timetable system.
      * @param venue A non-null, unique venue object.
@@ -54,9 +267,19 @@ public class Timetable {
         if (venue == null) {
             throw new IllegalArgumentException("The venue must not be null");
         }
-        if (!venues.contains(venue)) {
+        int id = register(venue);
+        if (!listedVenues.get(id)) {
+            list(id);
             venues.add(venue);
+            venueSnapshot = null;
             success = true;
+            if (journal != null) {
+                try {
+                    journal.recordAdd(venue);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
         }
         return success;
     }
@@ -67,60 +290,964 @@ public class Timetable {
      * @return true if removed else false if not found
      */
     public boolean removeEvent(int eventId) {
-        // Search for the Event by name
-        Event which = null;
-        for (Event e : events) {
-            if (e.eventId == eventId) {
-                which = e;
-                break;
+        Event event = events.remove(eventId);
+        if (event == null) {
+            return false;
+        }
+        orderedEvents.remove(event);
+        recurringEvents.remove(event);
+        unindexModule(event);
+        cancel(event);
+        touched(event);
+        event.timetable = null;
+        if (journal != null) {
+            try {
+                journal.recordRemove(eventId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
-        if (which != null) {
-            events.remove(which);
+        return true;
+    }
+
+    /**
+     * Chooses non-clashing venues with the right facilities for a batch of events and
+     * adds them to the timetable. See VenueAssigner for how venues are chosen.
+     * @param unplacedEvents events with start and end times that are not yet in the timetable
+     * @return the events that could not be placed
+     */
+    public ArrayList<Event> assignVenues(Collection<Event> unplacedEvents) {
+        return new VenueAssigner(this).assign(unplacedEvents);
+    }
+
+    /**
+     * Logs every later add and remove to a journal, so that changes made since the last
+     * save can be recovered by replaying it. Any change to an event in the timetable, such
+     * as moving it to a new venue or time or changing its requirements, is logged as a
+     * remove followed by an add. Renaming a venue is logged as a rename.
+     * @param journal the journal, or null to stop logging
+     */
+    public void setJournal(TimetableJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Checks whether a venue is free for the given time range
+     * @param venue the venue to check
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @return true if no event is booked in the venue during the range
+     */
+    public boolean isVenueFree(Venue venue, LocalDateTime start, LocalDateTime end) {
+        return isVenueFree(venue, start, end, null);
+    }
+
+    /**
+     * Checks whether a venue is free for every occurrence of a recurring time range
+     * @param venue the venue to check
+     * @param start the start of the first occurrence
+     * @param end the end of the first occurrence (exclusive)
+     * @param recurrence how the range repeats, or null if it does not
+     * @return true if no event is booked in the venue during any occurrence
+     */
+    boolean isVenueFree(Venue venue, LocalDateTime start, LocalDateTime end, Recurrence recurrence) {
+        Schedule schedule = scheduleOf(venue);
+        return schedule == null || schedule.findClash(start, end, recurrence, null) == null;
+    }
+
+    /**
+     * Obtains the lectures given by a lecturer that overlap the given time range
+     * @param lecturerNumber the lecturer. Lectures with no lecturer, Lecture.NO_LECTURER,
+     *                       are not found
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the lectures in start time order
+     */
+    public Event[] obtainLecturerEvents(int lecturerNumber, LocalDateTime from, LocalDateTime to) {
+        QueryCache.Query query = new QueryCache.Query(QueryCache.Kind.LECTURER, lecturerNumber, from, to);
+        Event[] found = queryCache.get(query);
+        if (found == null) {
+            found = between(lecturerSchedules.get(lecturerNumber), from, to);
+            queryCache.put(query, found);
+        }
+        return found.clone();
+    }
+
+    /**
+     * Obtains the meetings organised by someone that overlap the given time range
+     * @param organiser the organiser
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the meetings in start time order
+     */
+    public Event[] obtainOrganiserEvents(String organiser, LocalDateTime from, LocalDateTime to) {
+        QueryCache.Query query = new QueryCache.Query(QueryCache.Kind.ORGANISER, organiser, from, to);
+        Event[] found = queryCache.get(query);
+        if (found == null) {
+            found = between(organiserSchedules.get(organiser), from, to);
+            queryCache.put(query, found);
+        }
+        return found.clone();
+    }
+
+    private static Event[] between(Schedule schedule, LocalDateTime from, LocalDateTime to) {
+        if (schedule == null) {
+            return new Event[0];
+        }
+        ArrayList<Event> found = schedule.between(from, to);
+        return found.toArray(new Event[found.size()]);
+    }
+
+    /**
+     * Finds the added venues that have all the given facilities and are free for the
+     * given time range
+     * @param requirements the facilities needed, a bit mask of Facility.mask() values
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @return the venues, in the order they were added
+     */
+    public Venue[] findFreeVenues(int requirements, LocalDateTime start, LocalDateTime end) {
+        return findFreeVenues(requirements, start, end, null);
+    }
+
+    /**
+     * Finds the added venues an event could move to for the given time range: those with
+     * the facilities it requires that are free, apart from its own booking
+     * @param event the event
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @return the venues, in the order they were added
+     */
+    public Venue[] findFreeVenues(Event event, LocalDateTime start, LocalDateTime end) {
+        return findFreeVenues(event.requirements, start, end, event);
+    }
+
+    private Venue[] findFreeVenues(int requirements, LocalDateTime start, LocalDateTime end, Event ignore) {
+        BitSet suitable = venuesWith(requirements);
+        ArrayList<Venue> free = new ArrayList<>();
+        for (int id = suitable.nextSetBit(0); id >= 0; id = suitable.nextSetBit(id + 1)) {
+            Schedule schedule = venueSchedules.get(id);
+            if (schedule == null || schedule.findClash(start, end, ignore) == null) {
+                free.add(venuesById.get(id));
+            }
+        }
+        return free.toArray(new Venue[free.size()]);
+    }
+
+    /**
+     * Finds the earliest time at which some added venue with the given facilities is free
+     * for the given length of time. Each suitable venue's bookings are walked from the
+     * start of the search, and once a slot has been found the remaining venues are only
+     * searched up to it, so most venues cost a single O(log n) lookup
+     * @param requirements the facilities needed, a bit mask of Facility.mask() values
+     * @param length how long the slot must be
+     * @param from the earliest allowed start
+     * @param days the number of days from 'from' that the slot must fit within
+     * @return the earliest slot, in the first added of the venues free then, or null if
+     * there is none
+     * @throws IllegalArgumentException is thrown if length is not positive
+     */
+    public FreeSlot findFreeSlot(int requirements, Duration length, LocalDateTime from, int days) {
+        if (length.isNegative() || length.isZero()) {
+            throw new IllegalArgumentException("The slot length must be positive");
+        }
+        LocalDateTime latestStart = from.plusDays(days).minus(length);
+        if (latestStart.isBefore(from)) {
+            return null;
+        }
+        BitSet suitable = venuesWith(requirements);
+        LocalDateTime best = null;
+        int bestId = -1;
+        for (int id = suitable.nextSetBit(0); id >= 0; id = suitable.nextSetBit(id + 1)) {
+            Schedule schedule = venueSchedules.get(id);
+            LocalDateTime start = schedule == null ? from : schedule.findGap(from, latestStart, length);
+            if (start != null && (best == null || start.isBefore(best))) {
+                best = start;
+                bestId = id;
+                if (best.equals(from)) {
+                    break;
+                }
+                latestStart = best;
+            }
+        }
+        return best == null ? null : new FreeSlot(venuesById.get(bestId), best, best.plus(length));
+    }
+
+    /**
+     * Returns the IDs of the added venues that have all the given facilities. Each
+     * required facility costs one AND of the inverted index
+     * @param requirements a bit mask of Facility.mask() values
+     * @return a new set of venue IDs
+     */
+    BitSet venuesWith(int requirements) {
+        BitSet result = new BitSet();
+        if ((requirements & ~Facility.maskOf(Facility.values())) != 0) {
+            // Asks for a facility no venue can have
+            return result;
+        }
+        result.or(listedVenues);
+        BitSet[] index = facilityIndex();
+        for (Facility facility : Facility.values()) {
+            if ((requirements & facility.mask()) != 0) {
+                result.and(index[facility.ordinal()]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the venue with the given ID
+     * @param id an ID below venueIdLimit()
+     * @return the venue
+     */
+    Venue venueById(int id) {
+        return venuesById.get(id);
+    }
+
+    /*
+     * Returns the inverted facility index, building it if needed
+     */
+    private BitSet[] facilityIndex() {
+        if (venuesWithFacility == null) {
+            BitSet[] index = new BitSet[Facility.values().length];
+            for (int i = 0; i < index.length; i++) {
+                index[i] = new BitSet();
+            }
+            for (int id = listedVenues.nextSetBit(0); id >= 0; id = listedVenues.nextSetBit(id + 1)) {
+                indexFacilities(index, id);
+            }
+            venuesWithFacility = index;
+        }
+        return venuesWithFacility;
+    }
+
+    /**
+     * Re-indexes a venue whose facilities have changed. Called by Venue.setFacility
+     * @param venue a venue registered with this timetable
+     */
+    void facilitiesChanged(Venue venue) {
+        int id = venueId(venue);
+        if (venuesWithFacility != null && id >= 0 && venuesById.get(id) == venue && listedVenues.get(id)) {
+            indexFacilities(venuesWithFacility, id);
+        }
+    }
+
+    /**
+     * Renames a venue registered with this timetable. The registry is keyed by name and
+     * the display order sorts on it, so the events booked in the venue are taken out of
+     * the ordered sets while it changes. Called by Venue.setName
+     * @param venue the venue
+     * @param name the new name
+     * @return true if renamed else false if this timetable already has a venue of that name
+     */
+    boolean renameVenue(Venue venue, String name) {
+        int id = venueId(venue);
+        String oldName = venue.name;
+        if (id < 0 || venuesById.get(id) != venue || Objects.equals(name, oldName)) {
+            // Not registered here, or registered under the ID of an added venue of the same name
+            venue.name = name;
             return true;
-        } else {
+        }
+        if (venueIds.containsKey(name)) {
             return false;
         }
+        // Events booked with another Venue object of the same name are booked under the
+        // same ID, so they are moved to the registered venue rather than left behind
+        ArrayList<Event> booked = new ArrayList<>();
+        for (Event event : orderedEvents) {
+            if (event.venue != null && Objects.equals(event.venue.name, oldName)) {
+                booked.add(event);
+            }
+        }
+        for (Event event : booked) {
+            orderedEvents.remove(event);
+            recurringEvents.remove(event);
+            unindexModule(event);
+            touched(event);
+            event.venue = venue;
+        }
+        venueIds.remove(oldName);
+        venueIds.put(name, id);
+        venue.name = name;
+        for (Event event : booked) {
+            orderedEvents.add(event);
+            if (event.recurrence != null) {
+                recurringEvents.add(event);
+            }
+            indexModule(event);
+            touched(event);
+        }
+        if (journal != null) {
+            try {
+                journal.recordRename(oldName, name);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return true;
     }
 
+    /*
+     * Marks a registered venue as added, indexing its facilities if the index is in use
+     */
+    private void list(int id) {
+        listedVenues.set(id);
+        if (venuesWithFacility != null) {
+            indexFacilities(venuesWithFacility, id);
+        }
+    }
+
+    private void indexFacilities(BitSet[] index, int id) {
+        int facilities = venuesById.get(id).getFacilities();
+        for (Facility facility : Facility.values()) {
+            index[facility.ordinal()].set(id, (facilities & facility.mask()) != 0);
+        }
+    }
 
     /**
-     * sorts the events by starting time, and if needed, by venue name
+     * Obtains the events booked in a venue that overlap the given time range
+     * @param venue the venue
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the events in start time order
      */
-    public void sortEvents(){
-        Collections.sort(events, new Comparator<Event>() {
-            @Override
-            public int compare(Event o1, Event o2) {
-                LocalDateTime e1Date = ((Event)o1).getStartTime();
-                LocalDateTime e2Date = ((Event)o2).getStartTime();
-                int dComparison = e1Date.compareTo(e2Date);
-
-                if (dComparison != 0) {
-                    return dComparison;
-                }
+    public Event[] obtainVenueEvents(Venue venue, LocalDateTime from, LocalDateTime to) {
+        int id = venueId(venue);
+        if (id < 0) {
+            return new Event[0];
+        }
+        QueryCache.Query query = new QueryCache.Query(QueryCache.Kind.VENUE, id, from, to);
+        Event[] found = queryCache.get(query);
+        if (found == null) {
+            found = between(venueSchedules.get(id), from, to);
+            queryCache.put(query, found);
+        }
+        return found.clone();
+    }
+
+    /**
+     * Returns the cache in front of the range queries, for its hit and miss counts
+     * @return the cache
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Moves an event in this timetable to a new venue and/or time, as long as the
+     * new slot does not clash with another booking of the venue or of the person
+     * running the event. Called by the event's setters.
+     * @param event an event in this timetable
+     * @param venue the new venue
+     * @param start the new start time
+     * @param end the new end time
+     * @return true if moved else false if the new slot clashes
+     */
+    boolean reschedule(Event event, Venue venue, LocalDateTime start, LocalDateTime end) {
+        if (start != null && end != null) {
+            if (venue != null && clashes(scheduleOf(venue), start, end, event.recurrence, event)
+                    || clashes(personSchedule(event, false), start, end, event.recurrence, event)) {
+                return false;
+            }
+        }
+        // Take the event out of the ordered sets while the fields they are sorted on change
+        orderedEvents.remove(event);
+        recurringEvents.remove(event);
+        unindexModule(event);
+        cancel(event);
+        touched(event);
+        event.venue = venue;
+        event.startTime = start;
+        event.endTime = end;
+        book(event);
+        orderedEvents.add(event);
+        if (event.recurrence != null) {
+            recurringEvents.add(event);
+        }
+        indexModule(event);
+        touched(event);
+        journalChange(event);
+        return true;
+    }
+
+    /**
+     * Gives a lecture in this timetable a new lecturer, as long as they are free at the
+     * time. Called by Lecture.setLecturerNumber
+     * @param lecture a lecture in this timetable
+     * @param lecturerNumber the new lecturer
+     * @return true if changed else false if the lecturer is already booked
+     */
+    boolean changeLecturer(Lecture lecture, int lecturerNumber) {
+        if (lecture.startTime != null && lecture.endTime != null && lecturerNumber != Lecture.NO_LECTURER
+                && clashes(lecturerSchedules.get(lecturerNumber), lecture.startTime, lecture.endTime,
+                lecture.recurrence, lecture)) {
+            return false;
+        }
+        cancel(lecture);
+        touched(lecture);
+        lecture.lecturerNumber = lecturerNumber;
+        book(lecture);
+        touched(lecture);
+        journalChange(lecture);
+        return true;
+    }
+
+    /**
+     * Gives a meeting in this timetable a new organiser, as long as they are free at the
+     * time. Called by Meeting.setOrganiser
+     * @param meeting a meeting in this timetable
+     * @param organiser the new organiser
+     * @return true if changed else false if the organiser is already booked
+     */
+    boolean changeOrganiser(Meeting meeting, String organiser) {
+        if (meeting.startTime != null && meeting.endTime != null && organiser != null
+                && clashes(organiserSchedules.get(organiser), meeting.startTime, meeting.endTime,
+                meeting.recurrence, meeting)) {
+            return false;
+        }
+        cancel(meeting);
+        touched(meeting);
+        meeting.organiser = organiser;
+        book(meeting);
+        touched(meeting);
+        journalChange(meeting);
+        return true;
+    }
+
+    /**
+     * Gives an event in this timetable a new ID, as long as no other event has it. The
+     * ID is the last key of the display order, so the event is taken out of the ordered
+     * sets while it changes. Called by Event.setEventId
+     * @param event an event in this timetable
+     * @param eventId the new ID
+     * @return true if changed else false if the ID is in use
+     */
+    boolean changeEventId(Event event, int eventId) {
+        int oldId = event.eventId;
+        if (eventId == oldId) {
+            return true;
+        }
+        if (events.containsKey(eventId)) {
+            return false;
+        }
+        events.remove(oldId);
+        orderedEvents.remove(event);
+        recurringEvents.remove(event);
+        unindexModule(event);
+        event.eventId = eventId;
+        events.put(eventId, event);
+        orderedEvents.add(event);
+        if (event.recurrence != null) {
+            recurringEvents.add(event);
+        }
+        indexModule(event);
+        // Cached results hold the event in display order, which may have changed
+        touched(event);
+        journalChange(oldId, event);
+        return true;
+    }
+
+    /**
+     * Moves a lecture in this timetable to another module. Called by Lecture.setModuleCode
+     * @param lecture a lecture in this timetable
+     * @param moduleCode the new module code
+     */
+    void changeModule(Lecture lecture, String moduleCode) {
+        unindexModule(lecture);
+        touched(lecture);
+        lecture.moduleCode = moduleCode;
+        indexModule(lecture);
+        touched(lecture);
+        journalChange(lecture);
+    }
+
+    /**
+     * Makes an event in this timetable repeat, or stop repeating, as long as its venue
+     * and the person running it are free at every new occurrence. Called by
+     * Event.setRecurrence
+     * @param event an event in this timetable
+     * @param recurrence how the event repeats, or null for an event that takes place once
+     * @return true if changed else false if one of the occurrences clashes
+     */
+    boolean changeRecurrence(Event event, Recurrence recurrence) {
+        if (event.startTime != null && event.endTime != null) {
+            if (event.venue != null && clashes(scheduleOf(event.venue), event.startTime, event.endTime, recurrence, event)
+                    || clashes(personSchedule(event, false), event.startTime, event.endTime, recurrence, event)) {
+                return false;
+            }
+        }
+        recurringEvents.remove(event);
+        unindexModule(event);
+        cancel(event);
+        touched(event);
+        event.recurrence = recurrence;
+        book(event);
+        if (recurrence != null) {
+            recurringEvents.add(event);
+        }
+        indexModule(event);
+        touched(event);
+        journalChange(event);
+        return true;
+    }
+
+    /**
+     * Drops the copies of the events made for reports after a change to an event's
+     * requirements, lecturer name, meeting name or meeting type, and journals the change.
+     * No index is sorted or keyed on those, so nothing else needs to change. Called by the
+     * setters of those details
+     * @param event an event in this timetable
+     */
+    void detailsChanged(Event event) {
+        eventSnapshot = null;
+        columns = null;
+        journalChange(event);
+    }
+
+    /*
+     * Drops the cached query results that an event appears in, or would appear in. For a
+     * recurring event that is every one of its occurrences
+     */
+    private void touched(Event event) {
+        eventSnapshot = null;
+        columns = null;
+        LocalDateTime start = event.startTime;
+        LocalDateTime end = event.endTime;
+        if (start == null) {
+            return;
+        }
+        Recurrence recurrence = event.recurrence;
+        if (recurrence == null) {
+            touched(event, start, end);
+            return;
+        }
+        Duration length = end == null ? null : Duration.between(start, end);
+        for (int k = 0; k < recurrence.getCount(); k++) {
+            LocalDateTime occurrence = recurrence.start(start, k);
+            if (!recurrence.skips(occurrence)) {
+                touched(event, occurrence, length == null ? null : occurrence.plus(length));
+            }
+        }
+    }
+
+    /*
+     * Drops the cached query results that an event at the given time appears in
+     */
+    private void touched(Event event, LocalDateTime start, LocalDateTime end) {
+        queryCache.invalidate(QueryCache.Kind.EVENTS, null, start, end);
+        if (event instanceof Lecture && ((Lecture) event).moduleCode != null) {
+            queryCache.invalidate(QueryCache.Kind.MODULES, ((Lecture) event).moduleCode, start, end);
+        }
+        // Only events with both times are booked, and so found by the other queries
+        if (end == null) {
+            return;
+        }
+        if (event.venue != null) {
+            queryCache.invalidate(QueryCache.Kind.VENUE, venueId(event.venue), start, end);
+        }
+        if (event instanceof Lecture) {
+            queryCache.invalidate(QueryCache.Kind.LECTURER, ((Lecture) event).lecturerNumber, start, end);
+        } else if (event instanceof Meeting && ((Meeting) event).organiser != null) {
+            queryCache.invalidate(QueryCache.Kind.ORGANISER, ((Meeting) event).organiser, start, end);
+        }
+    }
+
+    /*
+     * Logs a change to an event in this timetable as a remove followed by an add
+     */
+    private void journalChange(Event event) {
+        journalChange(event.eventId, event);
+    }
+
+    /*
+     * Logs a change to an event that was in the journal under the given ID
+     */
+    private void journalChange(int removedId, Event event) {
+        if (journal != null) {
+            try {
+                journal.recordRemove(removedId);
+                journal.recordAdd(event);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Books an event into the schedules of its venue and of the person running it.
+     * Events without times are not booked anywhere, so can never clash.
+     * @param event the event
+     * @return true if booked else false if the venue or the person is taken
+     */
+    private boolean book(Event event) {
+        if (event.startTime == null || event.endTime == null) {
+            return true;
+        }
+        Schedule venueSchedule = null;
+        if (event.venue != null) {
+            int id = register(event.venue);
+            venueSchedule = venueSchedules.get(id);
+            if (venueSchedule == null) {
+                venueSchedule = new Schedule();
+                venueSchedules.set(id, venueSchedule);
+            }
+        }
+        Schedule personSchedule = personSchedule(event, true);
+        if (clashes(venueSchedule, event.startTime, event.endTime, event.recurrence, null)
+                || clashes(personSchedule, event.startTime, event.endTime, event.recurrence, null)) {
+            return false;
+        }
+        if (venueSchedule != null) {
+            venueSchedule.book(event);
+        }
+        if (personSchedule != null) {
+            personSchedule.book(event);
+        }
+        return true;
+    }
 
-                String e1Venue = ((Event)o1).getVenue().getName();
-                String e2Venue = ((Event)o2).getVenue().getName();
-                return e1Venue.compareTo(e2Venue);
+    /**
+     * Removes an event from the schedules of its venue and of the person running it
+     * @param event the event
+     */
+    private void cancel(Event event) {
+        if (event.startTime != null) {
+            Schedule schedule = event.venue == null ? null : scheduleOf(event.venue);
+            if (schedule != null) {
+                schedule.cancel(event);
             }
-        });
+            schedule = personSchedule(event, false);
+            if (schedule != null) {
+                schedule.cancel(event);
+            }
+        }
     }
 
+    /*
+     * Returns the bookings of whoever runs an event: the lecturer of a lecture or the
+     * organiser of a meeting. Returns null if no one is named, or if create is false
+     * and they have no bookings yet
+     */
+    private Schedule personSchedule(Event event, boolean create) {
+        if (event instanceof Lecture && ((Lecture) event).lecturerNumber != Lecture.NO_LECTURER) {
+            return scheduleIn(lecturerSchedules, ((Lecture) event).lecturerNumber, create);
+        } else if (event instanceof Meeting && ((Meeting) event).organiser != null) {
+            return scheduleIn(organiserSchedules, ((Meeting) event).organiser, create);
+        }
+        return null;
+    }
+
+    private static <K> Schedule scheduleIn(HashMap<K, Schedule> schedules, K key, boolean create) {
+        Schedule schedule = schedules.get(key);
+        if (schedule == null && create) {
+            schedule = new Schedule();
+            schedules.put(key, schedule);
+        }
+        return schedule;
+    }
+
+    private static boolean clashes(Schedule schedule, LocalDateTime start, LocalDateTime end,
+                                   Recurrence recurrence, Event ignore) {
+        return schedule != null && schedule.findClash(start, end, recurrence, ignore) != null;
+    }
+
+
     /**
-     * Obtains a copy of the timetabled meetings
-     * @return A copy of the timetabled meetings
+     * sorts the events by starting time, and if needed, by venue name.
+     * The events are now always kept in this order as they are added, moved and removed,
+     * so there is nothing left to do. Kept for existing callers.
+     */
+    public void sortEvents(){
+    }
+
+    /**
+     * Obtains a copy of the timetabled events
+     * @return A copy of the timetabled events, ordered by start time and then venue name
      */
     public Event[] obtainAllEvents() {
-        Event[] result = new Meeting[events.size()];
-        result = events.toArray(result);
+        Event[] result = new Event[orderedEvents.size()];
+        result = orderedEvents.toArray(result);
         return result;
     }
 
+    /**
+     * Returns a read-only view of the timetabled events, without copying them. The view
+     * follows later changes to the timetable, so it must not be iterated while the
+     * timetable is being changed
+     * @return the events, ordered by start time and then venue name
+     */
+    public NavigableSet<Event> viewAllEvents() {
+        return Collections.unmodifiableNavigableSet(orderedEvents);
+    }
+
+    /**
+     * Returns a stream over the timetabled events, without copying them. The same rules
+     * apply as for viewAllEvents()
+     * @return a sorted stream of the events, ordered by start time and then venue name
+     */
+    public Stream<Event> streamEvents() {
+        return orderedEvents.stream();
+    }
+
+    /**
+     * Passes each timetabled event that matches a filter to an action, in display order,
+     * without copying the events. The action must not change the timetable
+     * @param filter which events to pass on
+     * @param action what to do with each of them
+     */
+    public void forEachEvent(Predicate<? super Event> filter, Consumer<? super Event> action) {
+        for (Event event : orderedEvents) {
+            if (filter.test(event)) {
+                action.accept(event);
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only snapshot of the timetabled events, which later changes to the
+     * timetable do not affect. Snapshots taken between changes share one copy, so taking
+     * one only costs O(n) the first time after a change
+     * @return the events, ordered by start time and then venue name
+     */
+    public List<Event> snapshotEvents() {
+        if (eventSnapshot == null) {
+            eventSnapshot = orderedEvents.toArray(new Event[orderedEvents.size()]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(eventSnapshot));
+    }
+
+    /**
+     * Returns the events held column by column in primitive arrays, for reports that
+     * scan all of them. The columns are built on first use and shared until the next
+     * change, so building them costs O(n) once per change rather than once per report
+     * @return the columns
+     */
+    public EventColumns obtainColumns() {
+        if (columns == null) {
+            columns = new EventColumns(this);
+        }
+        return columns;
+    }
+
+    /**
+     * Obtains the next events starting at or after a given time. Recurring events are
+     * given as their occurrences
+     * @param time the time to start from
+     * @param count the most events to return
+     * @return up to count events, ordered by start time and then venue name
+     */
+    public Event[] obtainEventsAfter(LocalDateTime time, int count) {
+        ArrayList<Event> found = new ArrayList<>();
+        Iterator<Event> it = orderedEvents.tailSet(probe(time), true).iterator();
+        while (found.size() < count && it.hasNext()) {
+            Event event = it.next();
+            if (event.recurrence == null) {
+                found.add(event);
+            }
+        }
+        if (!recurringEvents.isEmpty()) {
+            // Only occurrences up to the last event found can be among the first count.
+            // The nanosecond takes in occurrences starting at the same time as it
+            LocalDateTime to = found.size() < count ? LocalDateTime.MAX
+                    : found.get(found.size() - 1).startTime.plusNanos(1);
+            withOccurrences(found, recurringEvents.headSet(probe(to), false), time, to);
+            while (found.size() > count) {
+                found.remove(found.size() - 1);
+            }
+        }
+        return found.toArray(new Event[found.size()]);
+    }
+
+    /**
+     * Obtains the events that start within the given time range, such as a week.
+     * Recurring events are given as their occurrences in the range
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the events, ordered by start time and then venue name
+     */
+    public Event[] obtainEvents(LocalDateTime from, LocalDateTime to) {
+        QueryCache.Query query = new QueryCache.Query(QueryCache.Kind.EVENTS, null, from, to);
+        Event[] found = queryCache.get(query);
+        if (found == null) {
+            Collection<Event> inRange = orderedEvents.subSet(probe(from), true, probe(to), false);
+            if (recurringEvents.isEmpty()) {
+                found = inRange.toArray(new Event[inRange.size()]);
+            } else {
+                ArrayList<Event> single = new ArrayList<>(inRange.size());
+                for (Event event : inRange) {
+                    if (event.recurrence == null) {
+                        single.add(event);
+                    }
+                }
+                withOccurrences(single, recurringEvents.headSet(probe(to), false), from, to);
+                found = single.toArray(new Event[single.size()]);
+            }
+            queryCache.put(query, found);
+        }
+        return found.clone();
+    }
+
+    /*
+     * Adds the occurrences of some recurring events that start within a range to a list
+     * of events in display order, keeping it in display order
+     */
+    private static void withOccurrences(ArrayList<Event> found, Collection<Event> series,
+                                        LocalDateTime from, LocalDateTime to) {
+        int single = found.size();
+        for (Event event : series) {
+            event.addOccurrences(from, to, true, found);
+        }
+        if (found.size() > single) {
+            Collections.sort(found, DISPLAY_ORDER);
+        }
+    }
+
+    /**
+     * Obtains the lectures of a module that start within the given time range
+     * @param moduleCode the module
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the lectures, ordered by start time and then venue name
+     */
+    public Event[] obtainModuleLectures(String moduleCode, LocalDateTime from, LocalDateTime to) {
+        return obtainModuleLectures(Collections.singleton(moduleCode), from, to);
+    }
+
+    /**
+     * Obtains the lectures of several modules that start within the given time range.
+     * Each module's lectures in the range are found with one lookup and merged with the
+     * others, along with the occurrences of its recurring lectures. The result is cached until a lecture in it changes, so the same query
+     * asked again, as at registration peaks, costs a hash lookup and a copy
+     * @param moduleCodes the modules, which must not contain null. Their order and any
+     *                    repeats make no difference
+     * @param from the start of the range
+     * @param to the end of the range (exclusive)
+     * @return the lectures, ordered by start time and then venue name
+     */
+    public Event[] obtainModuleLectures(Collection<String> moduleCodes, LocalDateTime from, LocalDateTime to) {
+        TreeSet<String> modules = new TreeSet<>(moduleCodes);
+        QueryCache.Query query = new QueryCache.Query(QueryCache.Kind.MODULES, modules, from, to);
+        Event[] found = queryCache.get(query);
+        if (found == null) {
+            found = mergeModules(modules, from, to);
+            queryCache.put(query, found);
+        }
+        return found.clone();
+    }
+
+    /*
+     * Merges the lectures of several modules that start within a range into one array
+     * in display order. Each module's lectures are already in order, so this is a k-way
+     * merge using a heap holding the next lecture from each module
+     */
+    private Event[] mergeModules(Set<String> moduleCodes, LocalDateTime from, LocalDateTime to) {
+        PriorityQueue<ModuleCursor> next = new PriorityQueue<>(Math.max(1, moduleCodes.size()),
+                new Comparator<ModuleCursor>() {
+                    @Override
+                    public int compare(ModuleCursor o1, ModuleCursor o2) {
+                        return DISPLAY_ORDER.compare(o1.lecture, o2.lecture);
+                    }
+                });
+        Event fromProbe = probe(from);
+        Event toProbe = probe(to);
+        for (String moduleCode : moduleCodes) {
+            TreeSet<Event> lectures = moduleLectures.get(moduleCode);
+            if (lectures != null) {
+                Iterator<Event> inRange = lectures.subSet(fromProbe, true, toProbe, false).iterator();
+                if (inRange.hasNext()) {
+                    next.add(new ModuleCursor(inRange));
+                }
+            }
+        }
+        ArrayList<Event> merged = new ArrayList<>();
+        while (!next.isEmpty()) {
+            ModuleCursor cursor = next.poll();
+            merged.add(cursor.lecture);
+            if (cursor.advance()) {
+                next.add(cursor);
+            }
+        }
+        if (!moduleSeries.isEmpty()) {
+            ArrayList<Event> series = new ArrayList<>();
+            for (String moduleCode : moduleCodes) {
+                TreeSet<Event> lectures = moduleSeries.get(moduleCode);
+                if (lectures != null) {
+                    series.addAll(lectures.headSet(toProbe, false));
+                }
+            }
+            withOccurrences(merged, series, from, to);
+        }
+        return merged.toArray(new Event[merged.size()]);
+    }
+
+    /*
+     * The next lecture of one module during a merge
+     */
+    private static class ModuleCursor {
+        private Iterator<Event> rest;
+        private Event lecture;
+
+        ModuleCursor(Iterator<Event> lectures) {
+            rest = lectures;
+            lecture = rest.next();
+        }
+
+        boolean advance() {
+            lecture = rest.hasNext() ? rest.next() : null;
+            return lecture != null;
+        }
+    }
+
+    private void indexModule(Event event) {
+        if (event instanceof Lecture && ((Lecture) event).moduleCode != null) {
+            String moduleCode = ((Lecture) event).moduleCode;
+            HashMap<String, TreeSet<Event>> index = event.recurrence == null ? moduleLectures : moduleSeries;
+            TreeSet<Event> lectures = index.get(moduleCode);
+            if (lectures == null) {
+                lectures = new TreeSet<>(DISPLAY_ORDER);
+                index.put(moduleCode, lectures);
+            }
+            lectures.add(event);
+        }
+    }
+
+    private void unindexModule(Event event) {
+        if (event instanceof Lecture && ((Lecture) event).moduleCode != null) {
+            String moduleCode = ((Lecture) event).moduleCode;
+            HashMap<String, TreeSet<Event>> index = event.recurrence == null ? moduleLectures : moduleSeries;
+            TreeSet<Event> lectures = index.get(moduleCode);
+            if (lectures != null) {
+                lectures.remove(event);
+                if (lectures.isEmpty()) {
+                    index.remove(moduleCode);
+                }
+            }
+        }
+    }
+
+    /*
+     * Returns a probe event that sorts before every event starting at the given time:
+     * it has no venue and the lowest ID
+     */
+    private static Event probe(LocalDateTime time) {
+        Event probe = new Event(Integer.MIN_VALUE);
+        probe.startTime = time;
+        return probe;
+    }
+
+    private static <T extends Comparable<T>> int compareNullsFirst(T a, T b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+
     /**
      * Sorts the venues by their name, using the .equals() method
      */
     public void sortVenues(){
         Collections.sort(venues);
+        venueSnapshot = null;
     }
 
     /**
@@ -133,19 +1260,34 @@ public class Timetable {
         return result;
     }
 
+    /**
+     * Returns a read-only view of the timetable system venues, without copying them. The
+     * view follows later changes to the timetable
+     * @return the venues, in the order they were added or last sorted into
+     */
+    public List<Venue> viewAllVenues() {
+        return Collections.unmodifiableList(venues);
+    }
+
+    /**
+     * Returns a read-only snapshot of the timetable system venues, which later changes do
+     * not affect. Snapshots taken between changes share one copy
+     * @return the venues, in the order they were added or last sorted into
+     */
+    public List<Venue> snapshotVenues() {
+        if (venueSnapshot == null) {
+            venueSnapshot = venues.toArray(new Venue[venues.size()]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(venueSnapshot));
+    }
+
     /**
      * Searches for a given timetabled meeting
      * @param eventId the meeting to search for
      * @return The found meeting or else null if not found
      */
     public Event searchForEvent(int eventId) {
-        Event result = null;
-        for (int i = 0; i < events.size(); i++) {
-            if (events.get(i).eventId == eventId) {
-                result = events.get(i);
-            }
-        }
-        return result;
+        return events.get(eventId);
     }
 
 
@@ -155,119 +1297,371 @@ public class Timetable {
      * @return The venue if found else null
      */
     public Venue searchForVenue(String name) {
-        Venue result = null;
-        for (int i = 0; i < venues.size(); i++) {
-            if (venues.get(i).getName().equals(name)) {
-                result = venues.get(i);
-                return result;
+        Integer id = venueIds.get(name);
+        if (id == null || !listedVenues.get(id)) {
+            return null;
+        }
+        return venuesById.get(id);
+    }
+
+    /**
+     * Returns the ID this timetable gives a venue. IDs are dense, from 0 to venueIdLimit(),
+     * so they can index arrays. A venue that is not the registered object is matched by
+     * name, as equals() does
+     * @param venue the venue
+     * @return the ID, or -1 if the timetable has never seen a venue of that name
+     */
+    int venueId(Venue venue) {
+        int id = venue.id;
+        if (id >= 0 && id < venuesById.size() && venuesById.get(id) == venue) {
+            return id;
+        }
+        // Not ours, or the venue has since been registered by another timetable
+        Integer registered = venueIds.get(venue.getName());
+        return registered == null ? -1 : registered;
+    }
+
+    /**
+     * Returns one more than the highest venue ID given out so far
+     * @return the number of IDs in use
+     */
+    int venueIdLimit() {
+        return venuesById.size();
+    }
+
+    /*
+     * Returns the ID of a venue, giving it the next ID if its name is new. An added venue
+     * takes over the ID of a same-named venue that was only booked, so that the venue
+     * found by searchForVenue is the one that was added
+     */
+    private int register(Venue venue) {
+        int id = venueId(venue);
+        if (id < 0) {
+            id = venuesById.size();
+            venueIds.put(venue.getName(), id);
+            venuesById.add(venue);
+            venueSchedules.add(null);
+        } else if (venuesById.get(id) != venue) {
+            if (listedVenues.get(id)) {
+                // A venue of the same name was added first and keeps the ID
+                return id;
             }
+            venuesById.set(id, venue);
         }
-        return result;
+        venue.id = id;
+        venue.timetable = this;
+        return id;
+    }
+
+    /*
+     * Returns the bookings of a venue, or null if it has none
+     */
+    private Schedule scheduleOf(Venue venue) {
+        int id = venueId(venue);
+        return id < 0 ? null : venueSchedules.get(id);
     }
 
     /**
-     * Generates a Stringbuilder object with the information from the venues and events. Returns the toString() of the object
+     * Generates a Stringbuilder object with the information from the venues and events. Returns the toString() of the object.
+     * Use render() instead for large timetables.
      * @return Stringbuilder string
      */
     @Override
     public String toString() {
+        StringBuilder output = new StringBuilder();
+        try {
+            render(output);
+        } catch (IOException e) {
+            // A StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
 
-        StringBuilder output = new StringBuilder("Venues in timetable system are: ");
-        output.append("\n");
+    /**
+     * Writes the same text as toString() straight to a sink, event by event, so the whole
+     * timetable is never held in memory as one String. If the sink can be flushed, it is
+     * flushed every RENDER_FLUSH_EVERY events so that output appears as it is produced.
+     * @param out the sink, for example a buffered Writer
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    public void render(Appendable out) throws IOException {
+        out.append("Venues in timetable system are: ");
+        out.append('\n');
         for (Venue venue : venues) {
-            output.append(venue);
-            output.append("\n");
+            venue.appendTo(out);
+            out.append('\n');
         }
-        output.append("\n");
+        out.append('\n');
 
-        output.append("events in timetable are: ");
-        output.append("\n");
-        for (Event event : events) {
-            output.append(event);
-            output.append("\n");
+        out.append("events in timetable are: ");
+        out.append('\n');
+        int written = 0;
+        for (Event event : orderedEvents) {
+            event.appendTo(out);
+            out.append('\n');
+            if (++written % RENDER_FLUSH_EVERY == 0 && out instanceof Flushable) {
+                ((Flushable) out).flush();
+            }
+        }
+        out.append('\n');
+        if (out instanceof Flushable) {
+            ((Flushable) out).flush();
         }
-        output.append("\n");
-
-        return output.toString();
-
     }
 
     /**
-     * Loads the timetable data from the given file
-     * @param filename The text file. Must exist.
+     * Loads the timetable data from the given file. The file may be either a text file
+     * or a binary snapshot written by saveBinary; the format is detected from its first bytes.
+     * @param filename The text or snapshot file. Must exist.
      * @throws FileNotFoundException thrown if the file does not exist
      * @throws IOException thrown if some other kind of IO error occurs
      */
     public void load(String filename) throws FileNotFoundException, IOException {
         // Using try-with-resource (see my slides from workshop 15)
-        try (FileReader fr = new FileReader(filename);
-             BufferedReader br = new BufferedReader(fr);
-             Scanner infile = new Scanner(br)) {
+        try (FileInputStream fin = new FileInputStream(filename);
+             BufferedInputStream in = new BufferedInputStream(fin)) {
+            clear();
+            if (TimetableSnapshot.isSnapshot(in)) {
+                TimetableSnapshot.read(new DataInputStream(in), this);
+            } else {
+                load(new TimetableReader(new InputStreamReader(in)));
+            }
+        }
+    }
 
-            events.clear();
-            venues.clear();
+    /**
+     * Loads the timetable data from a binary snapshot file
+     * @param filename The snapshot file. Must exist.
+     * @throws FileNotFoundException thrown if the file does not exist
+     * @throws IOException thrown if the file is not a snapshot or some other kind of IO error occurs
+     */
+    public void loadBinary(String filename) throws FileNotFoundException, IOException {
+        try (FileInputStream fin = new FileInputStream(filename);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fin))) {
+            clear();
+            TimetableSnapshot.read(in, this);
+        }
+    }
+
+    /*
+     * Removes all events and venues
+     */
+    private void clear() {
+        for (Event event : events.values()) {
+            event.timetable = null;
+        }
+        events.clear();
+        orderedEvents.clear();
+        recurringEvents.clear();
+        venues.clear();
+        venueIds.clear();
+        venuesById.clear();
+        listedVenues.clear();
+        venuesWithFacility = null;
+        venueSchedules.clear();
+        lecturerSchedules.clear();
+        organiserSchedules.clear();
+        moduleLectures.clear();
+        moduleSeries.clear();
+        queryCache.clear();
+        eventSnapshot = null;
+        venueSnapshot = null;
+        columns = null;
+    }
 
-            infile.useDelimiter("\r?\n|\r"); // End of line characters on Unix or DOS or others OSs
+    /*
+     * Reads the text format: the venues first, then the meeting and lecture records
+     */
+    private void load(TimetableReader infile) throws IOException {
+        readVenues(infile);
 
-            // Read in the venues first
-            Meeting meeting = null;
-            Lecture lecture = null;
-            Venue venue = null;
-            int numVenues = infile.nextInt();
+        ArrayList<Event> loaded = new ArrayList<>();
+        while (infile.hasNext()) {
+            Event event = loadEvent(infile.next(), infile);
+            if (event != null) {
+                loaded.add(event);
+            }
+        }
+        addLoaded(loaded);
+    }
 
-            for (int i = 0; i < numVenues; i++) {
-                String venueName = infile.next();
-                boolean hasDataProjector = infile.nextBoolean();
-                boolean hasAdjustibleSeating = infile.nextBoolean();
+    /**
+     * Loads the timetable data from a text file, parsing the event records on the
+     * common fork-join pool
+     * @param filename The text or snapshot file. Must exist.
+     * @throws FileNotFoundException thrown if the file does not exist
+     * @throws IOException thrown if some other kind of IO error occurs
+     */
+    public void loadParallel(String filename) throws FileNotFoundException, IOException {
+        loadParallel(filename, new ParallelTimetableLoader());
+    }
 
-                venue = new Venue(venueName);
-                venue.setHasDataProjector(hasDataProjector);
-                venue.setHasAdjustibleSeating(hasAdjustibleSeating);
-                venues.add(venue);
+    /**
+     * Loads the timetable data from a text file, parsing the event records on several
+     * threads. The whole file is read into memory first. A binary snapshot is loaded
+     * as load() would load it
+     * @param filename The text or snapshot file. Must exist.
+     * @param loader the loader to parse the records with
+     * @throws FileNotFoundException thrown if the file does not exist
+     * @throws IOException thrown if some other kind of IO error occurs
+     */
+    public void loadParallel(String filename, ParallelTimetableLoader loader)
+            throws FileNotFoundException, IOException {
+        byte[] bytes;
+        try (FileInputStream fin = new FileInputStream(filename);
+             DataInputStream in = new DataInputStream(fin)) {
+            long size = fin.getChannel().size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large to load in parallel: " + filename);
             }
+            bytes = new byte[(int) size];
+            in.readFully(bytes);
+        }
+        clear();
+        if (TimetableSnapshot.isSnapshot(new ByteArrayInputStream(bytes))) {
+            TimetableSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes)), this);
+            return;
+        }
 
-            while (infile.hasNext()) {
-                String type = infile.next();
-                if (type.equals("lecture")){
-                    lecture = new Lecture();
+        // Decoded with the default charset, as InputStreamReader does in load(), straight
+        // into one char buffer. Going through a String would hold the text twice more
+        CharBuffer decoded = Charset.defaultCharset().decode(ByteBuffer.wrap(bytes));
+        // Let the bytes be collected while the records are parsed
+        bytes = null;
+        char[] text = decoded.array();
+        int end = decoded.arrayOffset() + decoded.limit();
+        TimetableReader header = new TimetableReader(text, decoded.arrayOffset() + decoded.position(), end);
+        readVenues(header);
 
-                    lecture.load(infile);
-                } else if (type.equals("meeting")){
-                    meeting = new Meeting();
+        HashMap<String, Venue> venuesByName = new HashMap<>();
+        for (Venue venue : venuesById) {
+            venuesByName.put(venue.getName(), venue);
+        }
+        // Booked in file order, so clashes are resolved as load() resolves them
+        addLoaded(loader.parse(text, header.position(), end, venuesByName));
+    }
 
-                    meeting.load(infile);
-                } else {
-                    System.out.println(type);
-                }
+    /*
+     * Reads the venues at the start of the text format
+     */
+    private void readVenues(TimetableReader infile) throws IOException {
+        Venue venue = null;
+        int numVenues = infile.nextInt();
 
-                // Read the venue data
-                String venueName = infile.next();
-                Venue theVenue = searchForVenue(venueName);
-                if (type.equals("lecture")){
-                    lecture.setVenue(theVenue);
-                    events.add(lecture);
-                } else if (type.equals("meeting")) {
-                    meeting.setVenue(theVenue);
-                    events.add(meeting);
-                }
+        for (int i = 0; i < numVenues; i++) {
+            String venueName = infile.next();
+            boolean hasDataProjector = infile.nextBoolean();
+            boolean hasAdjustibleSeating = infile.nextBoolean();
 
+            venue = new Venue(venueName);
+            venue.setHasDataProjector(hasDataProjector);
+            venue.setHasAdjustibleSeating(hasAdjustibleSeating);
+            list(register(venue));
+            venues.add(venue);
+        }
+    }
 
+    /**
+     * Adds the events read from a file as one batch, reporting any that cannot be added.
+     * An event whose venue is not in the venue list, which can only come from a damaged
+     * or hand edited file, is reported and left out rather than added half formed
+     * @param loaded the events, in file order
+     */
+    void addLoaded(Collection<Event> loaded) {
+        ArrayList<Event> known = new ArrayList<>(loaded.size());
+        for (Event event : loaded) {
+            if (event.venue != null && searchForVenue(event.venue.getName()) == null) {
+                System.err.println("Skipping event " + event.getEventId() + ": venue " +
+                        event.venue.getName() + " is not in the timetable");
+            } else {
+                known.add(event);
+            }
+        }
+        for (ImportReport.Rejection rejection : addAll(known).getRejections()) {
+            System.err.println("Skipping event " + rejection.getEvent().getEventId() + ": " +
+                    rejection.getReason().getDescription());
+        }
+    }
 
+    /**
+     * Reads one meeting or lecture record, followed by the name of its venue
+     * @param type the record type read from the file: meeting or lecture
+     * @param infile the reader, positioned after the type
+     * @return the event, with its venue set, or null if the type is not known. See
+     * venueNamed() for an empty or unknown venue name
+     * @throws IOException thrown if the file cannot be read
+     */
+    Event loadEvent(String type, TimetableReader infile) throws IOException {
+        Event event = readEvent(type, infile);
+
+        // Read the venue data
+        String venueName = infile.next();
+        if (event != null) {
+            event.venue = venueNamed(venueName, searchForVenue(venueName));
+        }
+        return event;
+    }
+
+    /**
+     * Works out the venue of an event from the name in its record. An empty name is an
+     * event with no venue. A name missing from the venue list gives a new venue that is
+     * not in the timetable, which addLoaded() then reports and leaves out
+     * @param venueName the name read from the record
+     * @param known the venue of that name in the venue list, or null if there is none
+     * @return the venue, or null for none
+     */
+    static Venue venueNamed(String venueName, Venue known) {
+        if (venueName.isEmpty()) {
+            return null;
+        }
+        return known == null ? new Venue(venueName) : known;
+    }
 
+    /**
+     * Reads one meeting or lecture record, without its venue. A recurring event's record
+     * is the "recurring" line and its recurrence, followed by its meeting or lecture record
+     * @param type the record type read from the file: meeting, lecture or recurring
+     * @param infile the reader, positioned after the type
+     * @return the event, or null if the type is not known
+     * @throws IOException thrown if the file cannot be read
+     */
+    static Event readEvent(String type, TimetableReader infile) throws IOException {
+        Event event = null;
+        if (type.equals("recurring")) {
+            Recurrence recurrence = Recurrence.load(infile);
+            event = readEvent(infile.next(), infile);
+            if (event != null) {
+                event.recurrence = recurrence;
             }
+        } else if (type.equals("lecture")){
+            Lecture lecture = new Lecture();
+
+            lecture.load(infile);
+            event = lecture;
+        } else if (type.equals("meeting")){
+            Meeting meeting = new Meeting();
+
+            meeting.load(infile);
+            event = meeting;
+        } else {
+            System.out.println(type);
         }
+        return event;
     }
 
 
     /**
      * Saves the timetabled data to a text file
      * @param outfileName The file. Will create a new file if it does not exist. Will overwrite an
-     *                    existing file.
+     *                    existing file. The file is written under a temporary name and then
+     *                    renamed, so a crash part way through leaves the old file intact.
      * @throws IOException Thrown if some IO problem occurs.
      */
 
     public void save(String outfileName) throws IOException {
-        try (FileWriter fw = new FileWriter(outfileName);
+        String tempName = outfileName + ".tmp";
+        try (FileWriter fw = new FileWriter(tempName);
              BufferedWriter bw = new BufferedWriter(fw);
              PrintWriter outfile = new PrintWriter(bw);) {
 
@@ -284,19 +1678,39 @@ public class Timetable {
             }
 
             Event event;
-            for (int pos = 0; pos < events.size(); pos++) {
-                event = events.get(pos);
+            Iterator<Event> it = orderedEvents.iterator();
+            while (it.hasNext()) {
+                event = it.next();
                 event.save(outfile);
 
+                // An event with no venue has an empty venue line, as in the journal. That
+                // line needs its newline even at the end of the file, or it would not be read
                 venue = event.getVenue();
-                outfile.print(venue.getName());
+                outfile.print(venue == null ? "" : venue.getName());
 
                 // Only print a newline if we're not at the end of the list. Don't want a trailing blank line
-                if (pos < events.size() - 1) {
+                if (it.hasNext() || venue == null) {
                     outfile.println();
                 }
             }
         }
+        Files.move(Paths.get(tempName), Paths.get(outfileName),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Saves the timetabled data as a binary snapshot, which is smaller and much quicker
+     * to load than the text file. Event times must be whole minutes, and every venue an
+     * event is booked in must have been added.
+     * @param outfileName The file. Will create a new file if it does not exist. Will overwrite an
+     *                    existing file.
+     * @throws IOException Thrown if some IO problem occurs or an event cannot be stored.
+     */
+    public void saveBinary(String outfileName) throws IOException {
+        try (FileOutputStream fout = new FileOutputStream(outfileName);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout))) {
+            TimetableSnapshot.write(out, venues, orderedEvents);
+        }
     }
 
 
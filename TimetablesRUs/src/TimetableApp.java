@@ -1,9 +1,17 @@
 
 
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.time.DateTimeException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Scanner;
@@ -17,14 +25,22 @@ import java.util.InputMismatchException;
  */
 public class TimetableApp {
 
+    // Fold the journal into the timetable file once it holds this many entries
+    private static final int COMPACT_AFTER = 1000;
+
     private String filename;
     private Scanner scan;
     private Timetable timetable;
+    private TimetableJournal journal;
 
-    private TimetableApp() {
+    private TimetableApp(String filename) {
         scan = new Scanner(System.in);
-        System.out.print("Please enter the filename of timetable information: ");
-        filename = scan.next();
+        if (filename == null) {
+            System.out.print("Please enter the filename of timetable information: ");
+            filename = scan.next();
+            scan.nextLine();
+        }
+        this.filename = filename;
 
         timetable = new Timetable();
     }
@@ -44,6 +60,21 @@ public class TimetableApp {
             System.err.println("An unexpected error occurred when trying to open the file " + filename);
             System.err.println(e.getMessage());
         }
+
+        // Recover any changes that were not saved before the last run ended
+        String journalName = filename + ".journal";
+        try {
+            int replayed = TimetableJournal.replay(journalName, timetable);
+            journal = new TimetableJournal(journalName);
+            if (replayed > 0) {
+                System.out.println("Recovered " + replayed + " unsaved changes");
+                save();
+            }
+            timetable.setJournal(journal);
+        } catch (IOException e) {
+            System.err.println("Unable to use the journal " + journalName + ". Changes are only saved on exit");
+            System.err.println(e.getMessage());
+        }
     }
 
     /*
@@ -54,7 +85,6 @@ public class TimetableApp {
         do {
             printMenu();
             System.out.println("What would you like to do:");
-            scan = new Scanner(System.in);
             response = scan.nextLine().toUpperCase();
             switch (response) {
                 case "1":
@@ -72,11 +102,20 @@ public class TimetableApp {
                 case "5":
                     printAll();
                     break;
+                case "6":
+                    findFreeSlot();
+                    break;
+                case "7":
+                    printUtilisation();
+                    break;
                 case "Q":
                     break;
                 default:
                     System.out.println("Try again");
             }
+            if (journal != null && journal.size() >= COMPACT_AFTER) {
+                save();
+            }
         } while (!(response.equals("Q")));
     }
 
@@ -86,6 +125,8 @@ public class TimetableApp {
         System.out.println("3 -  remove a timetable event");
         System.out.println("4 -  add a venue");
         System.out.println("5 -  display everything");
+        System.out.println("6 -  find a free slot");
+        System.out.println("7 -  venue utilisation report");
         System.out.println("q -  Quit");
     }
 
@@ -135,6 +176,7 @@ public class TimetableApp {
 
         } catch (InputMismatchException exception) {
             System.out.println("This is not an integer");
+            scan.nextLine();
         }
 
     }
@@ -170,6 +212,7 @@ public class TimetableApp {
             }
         } catch (InputMismatchException exception) {
             System.out.println("This is not an integer");
+            scan.nextLine();
         }
     }
 
@@ -203,12 +246,75 @@ public class TimetableApp {
         timetable.add(venue);
     }
 
+    private void findFreeSlot() {
+        try {
+            System.out.println("Is a data projector required?(Y/N)");
+            boolean projectorRequired = scan.nextLine().toUpperCase().equals("Y");
+            System.out.println("Is adjustable seating required?(Y/N)");
+            boolean adjustibleSeatingRequired = scan.nextLine().toUpperCase().equals("Y");
+            System.out.println("How long is the event, in minutes?");
+            int minutes = scan.nextInt();
+            System.out.println("How many days ahead should be searched?");
+            int days = scan.nextInt();
+            scan.nextLine();
+            System.out.println("Enter the earliest start time");
+            LocalDateTime from = getDateTime();
+
+            int requirements = (projectorRequired ? Facility.DATA_PROJECTOR.mask() : 0) |
+                    (adjustibleSeatingRequired ? Facility.ADJUSTABLE_SEATING.mask() : 0);
+            FreeSlot slot = timetable.findFreeSlot(requirements, Duration.ofMinutes(minutes), from, days);
+            if (slot != null) {
+                System.out.println("The earliest free slot is " + slot.getStartTime() + " to " +
+                        slot.getEndTime() + " in " + slot.getVenue().getName());
+            } else {
+                System.out.println("No suitable venue is free for that long in the next " + days + " days");
+            }
+        } catch (InputMismatchException exception) {
+            System.out.println("Incorrect data type");
+            scan.nextLine();
+        } catch (IllegalArgumentException exception) {
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    private void printUtilisation() {
+        try {
+            System.out.println("What hour do venues open, on weekdays? (0 - 23)");
+            int opens = scan.nextInt();
+            System.out.println("What hour do they close? (1 - 24)");
+            int closes = scan.nextInt();
+            scan.nextLine();
+            LocalTime closing = closes == 24 ? LocalTime.MAX : LocalTime.of(closes, 0);
+            UtilisationReport report = new UtilisationReport(timetable, LocalTime.of(opens, 0), closing,
+                    UtilisationReport.WEEKDAYS);
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+            report.render(out);
+            out.flush();
+        } catch (InputMismatchException exception) {
+            System.out.println("Incorrect data type");
+            scan.nextLine();
+        } catch (DateTimeException | IllegalArgumentException exception) {
+            System.out.println(exception.getMessage());
+        } catch (IOException e) {
+            System.err.println("Problem when trying to display the report: " + e.getMessage());
+        }
+    }
+
     private void printAll() {
+        // Events are kept in display order by the timetable, only the venues need sorting
         timetable.sortVenues();
 
-        timetable.sortEvents();
-
-        System.out.println(timetable.toString());
+        // Stream the timetable out rather than building it as one String.
+        // System.out is flushed but deliberately not closed
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+            timetable.render(out);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Problem when trying to display the timetable: " + e.getMessage());
+        }
     }
 
     private void populateAndAddMeetingToTimetable(Meeting meeting) {
@@ -240,7 +346,10 @@ public class TimetableApp {
 
                         meeting.setVenue(venue);
 
-                        timetable.add(meeting);
+                        if (!timetable.add(meeting)) {
+                            System.out.println("Could not add event " + meetingId +
+                                    ". The ID is in use, or " + venueName + " or the organiser is already booked at that time");
+                        }
                         break; // out of the loop
                     }
                 } else {
@@ -251,6 +360,7 @@ public class TimetableApp {
             }
         } catch (InputMismatchException exception) {
             System.out.println("Incorrect data type");
+            scan.nextLine();
         }
 
     }
@@ -261,6 +371,7 @@ public class TimetableApp {
             int meetingId = scan.nextInt();
             scan.nextLine();
             inputStartEndTime(lecture);
+            inputRecurrence(lecture);
 
             System.out.println("Is adjustable seating required?(Y/N)");
             String answer = scan.nextLine().toUpperCase();
@@ -284,7 +395,10 @@ public class TimetableApp {
 
                         lecture.setVenue(venue);
 
-                        timetable.add(lecture);
+                        if (!timetable.add(lecture)) {
+                            System.out.println("Could not add event " + meetingId +
+                                    ". The ID is in use, or " + venueName + " or the lecturer is already booked at that time");
+                        }
                         break; // out of the loop
                     }
                 } else {
@@ -295,6 +409,7 @@ public class TimetableApp {
             }
         } catch (InputMismatchException exception) {
             System.out.println("Incorrect data type");
+            scan.nextLine();
         }
 
     }
@@ -314,6 +429,22 @@ public class TimetableApp {
         }
     }
 
+    private void inputRecurrence(Event event) {
+        System.out.println("How many times does it take place? (1 for just once)");
+        int count = scan.nextInt();
+        scan.nextLine();
+        if (count > 1) {
+            System.out.println("Weekly or fortnightly?(W/F)");
+            String answer = scan.nextLine().toUpperCase();
+            try {
+                Recurrence recurrence = answer.equals("F") ? Recurrence.fortnightly(count) : Recurrence.weekly(count);
+                event.setRecurrence(recurrence);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
     private LocalDateTime getDateTime() {
         LocalDateTime result = null;
         while (true) {
@@ -367,22 +498,68 @@ public class TimetableApp {
     private void save() {
         try {
             timetable.save(filename);
+            if (journal != null) {
+                journal.reset();
+            }
         } catch (IOException e) {
             System.err.println("Problem when trying to write to file: " + filename);
         }
     }
 
+    private void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Problem when trying to close the journal: " + e.getMessage());
+            }
+        }
+    }
+
+
+    /*
+     * Runs a script of commands against the timetable file, with no prompts, then saves it.
+     * The script is read from standard input if its name is -
+     */
+    private int runBatch(String scriptName) {
+        int errors;
+        try (Reader script = scriptName.equals("-") ? new InputStreamReader(System.in) : new FileReader(scriptName)) {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+            Writer err = new BufferedWriter(new OutputStreamWriter(System.err));
+            errors = new TimetableBatch(timetable, out, err).run(script);
+        } catch (IOException e) {
+            System.err.println("Problem when trying to run the script " + scriptName + ": " + e.getMessage());
+            errors = 1;
+        }
+        // Whatever the script managed to change is kept
+        save();
+        close();
+        return errors;
+    }
 
     // /////////////////////////////////////////////////
+    /**
+     * Runs the timetable system
+     * @param args none to be asked for the timetable file, the file to skip being asked,
+     *             or the file and a script of commands (- for standard input) to run the
+     *             script instead of the menu. See TimetableBatch for the commands
+     */
     public static void main(String[] args) {
+        if (args.length >= 2) {
+            TimetableApp app = new TimetableApp(args[0]);
+            app.initialise();
+            System.exit(app.runBatch(args[1]) == 0 ? 0 : 1);
+        }
+
         System.out.println("**********HELLO***********");
 
-        TimetableApp app = new TimetableApp();
+        TimetableApp app = new TimetableApp(args.length > 0 ? args[0] : null);
         app.initialise();
         app.runMenu();
         app.printAll();
 
         app.save();
+        app.close();
 
         System.out.println("***********GOODBYE**********");
     }
@@ -0,0 +1,230 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Runs a script of timetable commands, one per line, so that many changes can be made in
+ * one run of the program rather than one run per change. Fields are separated by spaces,
+ * and a field with spaces in it goes in double quotes. Times are written as
+ * 2020-09-28T09:00, and blank lines and lines starting with # are ignored.
+ *
+ *   venue NAME [projector] [seating]
+ *   meeting ID START END VENUE NAME ORGANISER TYPE [projector] [seating] [weekly|fortnightly COUNT]
+ *   lecture ID START END VENUE MODULE LECTURER NUMBER [projector] [seating] [weekly|fortnightly COUNT]
+ *   remove ID
+ *   search ID
+ *   events FROM TO
+ *   report OPENS CLOSES
+ *   print
+ *
+ * VENUE is - for an event with no venue, and TYPE is one of the MeetingType names.
+ * Events from a run of meeting and lecture lines are added together with
+ * Timetable.addAll, and the run ends at the first other command, so every command sees
+ * the events added before it. Results go to one writer and errors, with their line
+ * numbers, to another, and both are buffered by the caller
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableBatch {
+    private Timetable timetable;
+    private Writer out;
+    private Writer err;
+    // The events waiting to be added, and the lines they came from
+    private ArrayList<Event> pending;
+    private IdentityHashMap<Event, Integer> pendingLines;
+    private int commands;
+    private int added;
+    private int removed;
+    private int errors;
+
+    /**
+     * Creates a batch runner
+     * @param timetable the timetable to change
+     * @param out where the results of searches and reports go
+     * @param err where errors go
+     */
+    public TimetableBatch(Timetable timetable, Writer out, Writer err) {
+        this.timetable = timetable;
+        this.out = out;
+        this.err = err;
+        pending = new ArrayList<>();
+        pendingLines = new IdentityHashMap<>();
+    }
+
+    /**
+     * Runs every command in a script, carrying on past any that fail, then writes a line
+     * saying how many commands were run, what they changed and how many failed
+     * @param script the commands
+     * @return the number of commands that failed
+     * @throws IOException thrown if the script cannot be read or the output written
+     */
+    public int run(Reader script) throws IOException {
+        BufferedReader in = script instanceof BufferedReader ? (BufferedReader) script : new BufferedReader(script);
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            ArrayList<String> fields = split(line);
+            if (fields.isEmpty() || fields.get(0).startsWith("#")) {
+                continue;
+            }
+            commands++;
+            try {
+                execute(fields, lineNumber);
+            } catch (IllegalArgumentException | DateTimeException | IndexOutOfBoundsException e) {
+                error(lineNumber, e instanceof IndexOutOfBoundsException ? "missing field in " + fields.get(0) : e.getMessage());
+            }
+        }
+        addPending();
+        out.write("Ran " + commands + " commands: " + added + " events added, " + removed + " removed, " +
+                errors + " failed\n");
+        out.flush();
+        err.flush();
+        return errors;
+    }
+
+    private void execute(ArrayList<String> fields, int lineNumber) throws IOException {
+        String command = fields.get(0).toLowerCase();
+        if (command.equals("meeting") || command.equals("lecture")) {
+            Event event = parseEvent(command, fields);
+            pending.add(event);
+            pendingLines.put(event, lineNumber);
+            return;
+        }
+        addPending();
+        switch (command) {
+            case "venue":
+                Venue venue = new Venue(fields.get(1));
+                venue.setHasDataProjector(fields.subList(2, fields.size()).contains("projector"));
+                venue.setHasAdjustibleSeating(fields.subList(2, fields.size()).contains("seating"));
+                if (!timetable.add(venue)) {
+                    error(lineNumber, "venue " + venue.getName() + " already exists");
+                }
+                break;
+            case "remove":
+                if (timetable.removeEvent(Integer.parseInt(fields.get(1)))) {
+                    removed++;
+                } else {
+                    error(lineNumber, "event " + fields.get(1) + " not found");
+                }
+                break;
+            case "search":
+                Event event = timetable.searchForEvent(Integer.parseInt(fields.get(1)));
+                if (event == null) {
+                    out.write("Event " + fields.get(1) + " not found\n");
+                } else {
+                    event.appendTo(out);
+                    out.write('\n');
+                }
+                break;
+            case "events":
+                LocalDateTime from = LocalDateTime.parse(fields.get(1));
+                LocalDateTime to = LocalDateTime.parse(fields.get(2));
+                for (Event found : timetable.obtainEvents(from, to)) {
+                    found.appendTo(out);
+                    out.write('\n');
+                }
+                break;
+            case "report":
+                new UtilisationReport(timetable, LocalTime.parse(fields.get(1)), LocalTime.parse(fields.get(2)),
+                        UtilisationReport.WEEKDAYS).render(out);
+                break;
+            case "print":
+                timetable.render(out);
+                break;
+            default:
+                error(lineNumber, "unknown command " + fields.get(0));
+        }
+    }
+
+    /*
+     * Builds a meeting or lecture from its fields. The venue and any recurrence are set
+     * directly, and left to Timetable.addAll to check
+     */
+    private Event parseEvent(String command, ArrayList<String> fields) throws IllegalArgumentException {
+        int id = Integer.parseInt(fields.get(1));
+        Event event;
+        if (command.equals("meeting")) {
+            event = new Meeting(id, fields.get(5), fields.get(6), MeetingType.valueOf(fields.get(7).toUpperCase()));
+        } else {
+            event = new Lecture(id, fields.get(5), fields.get(6), Integer.parseInt(fields.get(7)), false);
+        }
+        event.setStartAndEndTime(LocalDateTime.parse(fields.get(2)), LocalDateTime.parse(fields.get(3)));
+        if (!fields.get(4).equals("-")) {
+            Venue venue = timetable.searchForVenue(fields.get(4));
+            if (venue == null) {
+                throw new IllegalArgumentException("venue " + fields.get(4) + " not found");
+            }
+            event.venue = venue;
+        }
+        for (int i = 8; i < fields.size(); i++) {
+            String option = fields.get(i).toLowerCase();
+            if (option.equals("projector")) {
+                event.markRequired(Facility.DATA_PROJECTOR, true);
+            } else if (option.equals("seating")) {
+                event.markRequired(Facility.ADJUSTABLE_SEATING, true);
+            } else if (option.equals("weekly") || option.equals("fortnightly")) {
+                int count = Integer.parseInt(fields.get(++i));
+                event.recurrence = option.equals("weekly") ? Recurrence.weekly(count) : Recurrence.fortnightly(count);
+            } else {
+                throw new IllegalArgumentException("unknown option " + fields.get(i));
+            }
+        }
+        return event;
+    }
+
+    /*
+     * Adds the waiting events as one batch, reporting each one left out against its line
+     */
+    private void addPending() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        ImportReport report = timetable.addAll(pending);
+        added += report.getAdded();
+        // Event IDs may repeat in a batch, so rejections are matched to lines by identity
+        for (ImportReport.Rejection rejection : report.getRejections()) {
+            error(pendingLines.get(rejection.getEvent()), "event " + rejection.getEvent().getEventId() +
+                    " not added: " + rejection.getReason().getDescription());
+        }
+        pending.clear();
+        pendingLines.clear();
+    }
+
+    private void error(int lineNumber, String message) throws IOException {
+        errors++;
+        err.write("line " + lineNumber + ": " + message + "\n");
+    }
+
+    /*
+     * Splits a line into fields at spaces, keeping quoted fields whole
+     */
+    static ArrayList<String> split(String line) {
+        ArrayList<String> fields = new ArrayList<>();
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '"') {
+                int close = line.indexOf('"', i + 1);
+                int end = close < 0 ? line.length() : close;
+                fields.add(line.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+                    i++;
+                }
+                fields.add(line.substring(start, i));
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.DateTimeException;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+/**
+ * An append-only log of the changes made to a timetable since it was last saved.
+ * Each entry is a keyword line followed by the same lines the text file uses for
+ * a venue or event, and then an end line, so one edit costs one small append instead
+ * of rewriting the file.
+ * Entries are flushed as they are written, so they survive the program crashing, and
+ * are forced to disk every SYNC_EVERY entries or when sync() is called.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableJournal implements Closeable {
+    static final int SYNC_EVERY = 64;
+
+    private static final String ADD_VENUE = "add-venue";
+    private static final String ADD_EVENT = "add-event";
+    private static final String REMOVE_EVENT = "remove-event";
+    private static final String RENAME_VENUE = "rename-venue";
+    // Ends every entry. A crash can cut the last line short and still leave something
+    // that parses, such as part of an ID or a venue name, so only entries that reached
+    // their end line are applied
+    private static final String END_ENTRY = "end";
+
+    private FileOutputStream fout;
+    private PrintWriter out;
+    private int entries;
+    private int unsynced;
+
+    /**
+     * Opens a journal for appending, creating it if needed
+     * @param filename the journal file
+     * @throws IOException thrown if the file cannot be opened
+     */
+    public TimetableJournal(String filename) throws IOException {
+        fout = new FileOutputStream(filename, true);
+        out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(fout)));
+    }
+
+    /**
+     * Applies the entries in a journal file to a timetable. A partly written entry at the
+     * end of the file, left by a crash, is ignored: an entry is only applied once its end
+     * line has been read.
+     * @param filename the journal file. Nothing happens if it does not exist
+     * @param timetable the timetable, which should have no journal attached
+     * @return the number of entries replayed
+     * @throws IOException thrown if the file cannot be read, or holds an unknown or
+     * unreadable entry before the last one
+     */
+    public static int replay(String filename, Timetable timetable) throws IOException {
+        if (!new File(filename).exists()) {
+            return 0;
+        }
+        int replayed = 0;
+        try (TimetableReader infile = new TimetableReader(new FileReader(filename))) {
+            while (infile.hasNext()) {
+                String entry = infile.next();
+                // Each entry is read whole before it is applied
+                Venue venue = null;
+                Event event = null;
+                int removedId = 0;
+                String renamedFrom = null;
+                String renamedTo = null;
+                try {
+                    if (entry.equals(ADD_VENUE)) {
+                        venue = new Venue(infile.next());
+                        venue.setHasDataProjector(infile.nextBoolean());
+                        venue.setHasAdjustibleSeating(infile.nextBoolean());
+                    } else if (entry.equals(ADD_EVENT)) {
+                        event = timetable.loadEvent(infile.next(), infile);
+                    } else if (entry.equals(REMOVE_EVENT)) {
+                        removedId = infile.nextInt();
+                    } else if (entry.equals(RENAME_VENUE)) {
+                        renamedFrom = infile.next();
+                        renamedTo = infile.next();
+                    } else if (infile.hasNext()) {
+                        throw new IOException("Unknown journal entry '" + entry + "' in " + filename);
+                    } else {
+                        // The keyword itself was cut short
+                        throw new NoSuchElementException();
+                    }
+                    if (!infile.next().equals(END_ENTRY)) {
+                        throw new NoSuchElementException("Journal entry '" + entry + "' has no end line");
+                    }
+                } catch (NoSuchElementException | IllegalArgumentException | DateTimeException e) {
+                    // Only the last entry can have been cut short by a crash
+                    if (infile.hasNext()) {
+                        throw new IOException("Unreadable journal entry '" + entry + "' in " + filename, e);
+                    }
+                    System.err.println("Ignoring incomplete last entry in journal " + filename);
+                    break;
+                }
+                if (venue != null) {
+                    timetable.add(venue);
+                } else if (event != null) {
+                    timetable.addLoaded(Collections.singletonList(event));
+                } else if (entry.equals(REMOVE_EVENT)) {
+                    timetable.removeEvent(removedId);
+                } else if (renamedFrom != null) {
+                    Venue renamed = timetable.searchForVenue(renamedFrom);
+                    if (renamed != null) {
+                        renamed.setName(renamedTo);
+                    }
+                }
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Records that a venue was added
+     * @param venue the venue
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void recordAdd(Venue venue) throws IOException {
+        out.println(ADD_VENUE);
+        out.println(venue.getName());
+        out.println(venue.hasDataProjector());
+        out.println(venue.HasAdjustableSeating());
+        out.println(END_ENTRY);
+        written();
+    }
+
+    /**
+     * Records that an event was added
+     * @param event the event
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void recordAdd(Event event) throws IOException {
+        out.println(ADD_EVENT);
+        event.save(out);
+        out.println(event.getVenue() == null ? "" : event.getVenue().getName());
+        out.println(END_ENTRY);
+        written();
+    }
+
+    /**
+     * Records that a venue was renamed
+     * @param oldName the name the venue had
+     * @param newName the name it has now
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void recordRename(String oldName, String newName) throws IOException {
+        out.println(RENAME_VENUE);
+        out.println(oldName);
+        out.println(newName);
+        out.println(END_ENTRY);
+        written();
+    }
+
+    /**
+     * Records that an event was removed
+     * @param eventId the ID of the removed event
+     * @throws IOException thrown if the entry cannot be written
+     */
+    public void recordRemove(int eventId) throws IOException {
+        out.println(REMOVE_EVENT);
+        out.println(eventId);
+        out.println(END_ENTRY);
+        written();
+    }
+
+    /**
+     * Returns the number of entries written since the journal was opened or reset
+     * @return the number of entries
+     */
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * Forces all written entries to disk
+     * @throws IOException thrown if the entries cannot be written
+     */
+    public void sync() throws IOException {
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Unable to write to the journal");
+        }
+        fout.getChannel().force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * Empties the journal. Called once its entries are safely saved in the timetable file
+     * @throws IOException thrown if the journal cannot be truncated
+     */
+    public void reset() throws IOException {
+        out.flush();
+        fout.getChannel().truncate(0);
+        fout.getChannel().force(true);
+        entries = 0;
+        unsynced = 0;
+    }
+
+    /**
+     * Syncs and closes the journal
+     * @throws IOException thrown if the entries cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /*
+     * Flushes each entry to the OS and syncs once enough entries have built up
+     */
+    private void written() throws IOException {
+        entries++;
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Unable to write to the journal");
+        }
+        if (++unsynced >= SYNC_EVERY) {
+            sync();
+        }
+    }
+}
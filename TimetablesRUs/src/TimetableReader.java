@@ -0,0 +1,278 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the line based timetable file format. Every value is on a line of its own,
+ * with Unix, DOS or old Mac line endings. Numbers, booleans and date/times are parsed
+ * straight out of the character buffer, so only text values create Strings.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class TimetableReader implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private Reader in;
+    private char[] buf;
+    private int pos;
+    private int limit;
+    // Bounds of the current line within buf, set by readLine()
+    private int lineStart;
+    private int lineEnd;
+    // True if the previous line ended with '\r', so a following '\n' belongs to it
+    private boolean skipLF;
+
+    /**
+     * Creates a reader over a character stream
+     * @param in the stream. Closed when this reader is closed
+     */
+    public TimetableReader(Reader in) {
+        this.in = in;
+        buf = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Creates a reader over part of a character array already in memory. The array is
+     * read in place and is not copied, so several readers can share one array
+     * @param text the characters
+     * @param from the index of the first character to read
+     * @param to the index after the last character to read
+     */
+    public TimetableReader(char[] text, int from, int to) {
+        buf = text;
+        pos = from;
+        limit = to;
+    }
+
+    /**
+     * Returns the index of the next character to be read. Only meaningful for readers
+     * over a character array
+     * @return the index in the array
+     * @throws IOException thrown if the underlying stream fails
+     */
+    public int position() throws IOException {
+        // Consumes the '\n' of a "\r\n" line ending, if one is pending
+        hasNext();
+        return pos;
+    }
+
+    /**
+     * Returns true if there is at least one more line to read
+     * @return true if there is another line
+     * @throws IOException thrown if the underlying stream fails
+     */
+    public boolean hasNext() throws IOException {
+        if (skipLF) {
+            if (pos == limit && !fill()) {
+                return false;
+            }
+            if (buf[pos] == '\n') {
+                pos++;
+            }
+            skipLF = false;
+        }
+        return pos < limit || fill();
+    }
+
+    /**
+     * Reads the next line as a String
+     * @return the line without its line ending
+     * @throws IOException thrown if the underlying stream fails
+     */
+    public String next() throws IOException {
+        readLine();
+        return new String(buf, lineStart, lineEnd - lineStart);
+    }
+
+    /**
+     * Reads the next line as an int
+     * @return the value
+     * @throws IOException thrown if the underlying stream fails
+     * @throws InputMismatchException thrown if the line is not an int
+     */
+    public int nextInt() throws IOException {
+        readLine();
+        return parseInt(lineStart, lineEnd);
+    }
+
+    /**
+     * Reads the next line as a boolean. Case is ignored, as with Scanner
+     * @return the value
+     * @throws IOException thrown if the underlying stream fails
+     * @throws InputMismatchException thrown if the line is not true or false
+     */
+    public boolean nextBoolean() throws IOException {
+        readLine();
+        if (lineMatches("true")) {
+            return true;
+        } else if (lineMatches("false")) {
+            return false;
+        }
+        throw new InputMismatchException("Not a boolean: " + new String(buf, lineStart, lineEnd - lineStart));
+    }
+
+    /**
+     * Reads the next line as an ISO date/time, as written by LocalDateTime.toString().
+     * The common yyyy-MM-ddTHH:mm[:ss[.fraction]] layout is read by field position,
+     * anything else falls back to LocalDateTime.parse
+     * @return the date/time
+     * @throws IOException thrown if the underlying stream fails
+     * @throws java.time.DateTimeException thrown if the line is not a valid date/time
+     */
+    public LocalDateTime nextDateTime() throws IOException {
+        readLine();
+        int s = lineStart;
+        int length = lineEnd - lineStart;
+        if (length >= 16 && buf[s + 4] == '-' && buf[s + 7] == '-' && buf[s + 10] == 'T' && buf[s + 13] == ':'
+                && (length == 16 || buf[s + 16] == ':' && (length == 19 || length > 20 && buf[s + 19] == '.'))) {
+            int year = digits(s, 4);
+            int month = digits(s + 5, 2);
+            int day = digits(s + 8, 2);
+            int hour = digits(s + 11, 2);
+            int minute = digits(s + 14, 2);
+            int second = length > 16 ? digits(s + 17, 2) : 0;
+            int nano = 0;
+            if (length > 20 && length <= 29) {
+                int fraction = digits(s + 20, length - 20);
+                for (int i = length - 20; i < 9; i++) {
+                    fraction *= 10;
+                }
+                nano = fraction;
+            }
+            if (year >= 0 && month >= 0 && day >= 0 && hour >= 0 && minute >= 0 && second >= 0 && nano >= 0
+                    && length <= 29) {
+                return LocalDateTime.of(year, month, day, hour, minute, second, nano);
+            }
+        }
+        return LocalDateTime.parse(new String(buf, s, length));
+    }
+
+    /**
+     * Closes the underlying stream
+     * @throws IOException thrown if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    /*
+     * Finds the next line and records its bounds in lineStart and lineEnd
+     */
+    private void readLine() throws IOException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int scan = pos;
+        while (true) {
+            while (scan < limit) {
+                char c = buf[scan];
+                if (c == '\n' || c == '\r') {
+                    lineStart = pos;
+                    lineEnd = scan;
+                    pos = scan + 1;
+                    skipLF = c == '\r';
+                    return;
+                }
+                scan++;
+            }
+            // The line runs past the end of the buffer
+            int consumed = scan - pos;
+            if (!fill()) {
+                lineStart = pos;
+                lineEnd = limit;
+                pos = limit;
+                return;
+            }
+            scan = pos + consumed;
+        }
+    }
+
+    /*
+     * Moves any unread characters to the front of the buffer, growing it if it is
+     * full, and reads more. Returns false at the end of the stream, or straight away
+     * when reading from an array
+     */
+    private boolean fill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            char[] bigger = new char[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n <= 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+
+    /*
+     * Parses a signed int from buf[from, to)
+     */
+    private int parseInt(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        if (i == to) {
+            throw new InputMismatchException("Not an int: " + new String(buf, from, to - from));
+        }
+        // Accumulate negatively so that Integer.MIN_VALUE can be read
+        int limitValue = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || result < limitValue / 10 || result * 10 < limitValue + digit) {
+                throw new InputMismatchException("Not an int: " + new String(buf, from, to - from));
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /*
+     * Reads a fixed number of decimal digits, returning -1 if any is not a digit
+     */
+    private int digits(int from, int count) {
+        int result = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /*
+     * Compares the current line with a lower case word, ignoring case
+     */
+    private boolean lineMatches(String word) {
+        if (lineEnd - lineStart != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(buf[lineStart + i]) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
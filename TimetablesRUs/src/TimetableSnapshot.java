@@ -0,0 +1,407 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Reads and writes the binary snapshot format of a timetable. All values are big-endian.
+ *
+ * <pre>
+ * header   int magic "TTRU", short version
+ * strings  int count, int[count] offsets into the data, int data length,
+ *          data (each string as DataOutput.writeUTF)
+ * venues   int count, then per venue: int name string, byte facility flags
+ * recurrences (version 3 on) int count, then per recurring event: int record number,
+ *          int interval weeks, int occurrence count, int exception count,
+ *          int[exception count] exception dates (epoch-days)
+ * events   int count, then fixed width records of RECORD_SIZE bytes:
+ *          byte kind, int id, int start, int end (epoch-minutes, UTC), int venue (-1 if none),
+ *          byte requirement flags, int text1, int text2, int extra
+ * indexes  (version 2 on) int[event count] record numbers ordered by event ID,
+ *          int[venue count + 1] start of each venue's run in the following array,
+ *          int[] record numbers grouped by venue, each run ordered by start time
+ * </pre>
+ * For a meeting text1/text2/extra are the name, organiser and meeting type ordinal. For a
+ * lecture they are the module code, lecturer name and lecturer number. Text fields are
+ * indexes into the string table, -1 for null. The indexes let MappedTimetable answer
+ * lookups without decoding the whole file. A recurring event has one record, holding the
+ * times of its first occurrence, and its recurrence is stored in the recurrences section.
+ * @author Jamie Gregory
+ * @version 3
+ */
+public class TimetableSnapshot {
+    static final int MAGIC = 0x54545255;
+    static final short VERSION = 3;
+    static final int RECORD_SIZE = 30;
+    static final int HEADER_SIZE = 6;
+    static final int VENUE_RECORD_SIZE = 5;
+
+    static final byte MEETING = 0;
+    static final byte LECTURE = 1;
+
+    static final int PROJECTOR = 1;
+    static final int ADJUSTABLE_SEATING = 2;
+
+    private TimetableSnapshot() {
+    }
+
+    /**
+     * Checks whether a stream starts with the snapshot magic number. The stream is
+     * reset to where it was
+     * @param in a stream that supports mark/reset
+     * @return true if the stream holds a snapshot
+     * @throws IOException thrown if the stream cannot be read
+     */
+    static boolean isSnapshot(InputStream in) throws IOException {
+        in.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                in.reset();
+                return false;
+            }
+            magic = magic << 8 | b;
+        }
+        in.reset();
+        return magic == MAGIC;
+    }
+
+    /**
+     * Writes a snapshot
+     * @param out the output stream
+     * @param venues the venues
+     * @param events the events, in the order they should be loaded
+     * @throws IOException thrown if writing fails, an event time is not a whole minute or
+     * an event is booked in a venue that is not one of the venues
+     */
+    static void write(DataOutputStream out, Collection<Venue> venues, Collection<Event> events) throws IOException {
+        // Build the string table first, so nothing is written to the stream if an event cannot be stored
+        HashMap<String, Integer> stringIds = new HashMap<>();
+        ArrayList<String> strings = new ArrayList<>();
+        HashMap<Venue, Integer> venueIds = new HashMap<>();
+        for (Venue venue : venues) {
+            intern(venue.getName(), stringIds, strings);
+            venueIds.put(venue, venueIds.size());
+        }
+        for (Event event : events) {
+            toEpochMinute(event.startTime);
+            toEpochMinute(event.endTime);
+            // A venue record is needed to store the booking, or it would load as no venue
+            if (event.venue != null && !venueIds.containsKey(event.venue)) {
+                throw new IOException("Cannot store event " + event.getEventId() + ": its venue " +
+                        event.venue.getName() + " is not in the venue list");
+            }
+            if (event instanceof Meeting) {
+                Meeting meeting = (Meeting) event;
+                intern(meeting.getMeetingName(), stringIds, strings);
+                intern(meeting.getOrganiser(), stringIds, strings);
+            } else if (event instanceof Lecture) {
+                Lecture lecture = (Lecture) event;
+                intern(lecture.getModuleCode(), stringIds, strings);
+                intern(lecture.getLecturerName(), stringIds, strings);
+            } else {
+                throw new IOException("Cannot store event " + event.getEventId() + " of type " +
+                        event.getClass().getName());
+            }
+        }
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(data);
+        int[] offsets = new int[strings.size()];
+        for (int i = 0; i < strings.size(); i++) {
+            offsets[i] = dataOut.size();
+            dataOut.writeUTF(strings.get(i));
+        }
+
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(strings.size());
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        out.writeInt(data.size());
+        data.writeTo(out);
+
+        out.writeInt(venues.size());
+        for (Venue venue : venues) {
+            out.writeInt(stringIds.get(venue.getName()));
+            out.writeByte((venue.hasDataProjector() ? PROJECTOR : 0) |
+                    (venue.HasAdjustableSeating() ? ADJUSTABLE_SEATING : 0));
+        }
+
+        writeRecurrences(out, events);
+
+        out.writeInt(events.size());
+        for (Event event : events) {
+            Integer venueId = event.venue == null ? null : venueIds.get(event.venue);
+            out.writeByte(event instanceof Meeting ? MEETING : LECTURE);
+            out.writeInt(event.eventId);
+            out.writeInt(toEpochMinute(event.startTime));
+            out.writeInt(toEpochMinute(event.endTime));
+            out.writeInt(venueId == null ? -1 : venueId);
+            out.writeByte((event.requires(Facility.DATA_PROJECTOR) ? PROJECTOR : 0) |
+                    (event.requires(Facility.ADJUSTABLE_SEATING) ? ADJUSTABLE_SEATING : 0));
+            if (event instanceof Meeting) {
+                Meeting meeting = (Meeting) event;
+                out.writeInt(stringId(meeting.getMeetingName(), stringIds));
+                out.writeInt(stringId(meeting.getOrganiser(), stringIds));
+                out.writeInt(meeting.getMeetingType() == null ? -1 : meeting.getMeetingType().ordinal());
+            } else {
+                Lecture lecture = (Lecture) event;
+                out.writeInt(stringId(lecture.getModuleCode(), stringIds));
+                out.writeInt(stringId(lecture.getLecturerName(), stringIds));
+                out.writeInt(lecture.getLecturerNumber());
+            }
+        }
+
+        writeIndexes(out, venueIds, events);
+    }
+
+    /*
+     * Writes the recurrence of each recurring event, keyed by its record number
+     */
+    private static void writeRecurrences(DataOutputStream out, Collection<Event> events) throws IOException {
+        ArrayList<Integer> records = new ArrayList<>();
+        ArrayList<Recurrence> recurrences = new ArrayList<>();
+        int record = 0;
+        for (Event event : events) {
+            if (event.recurrence != null) {
+                records.add(record);
+                recurrences.add(event.recurrence);
+            }
+            record++;
+        }
+        out.writeInt(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Recurrence recurrence = recurrences.get(i);
+            out.writeInt(records.get(i));
+            out.writeInt(recurrence.getIntervalWeeks());
+            out.writeInt(recurrence.getCount());
+            out.writeInt(recurrence.getExceptions().size());
+            for (LocalDate date : recurrence.getExceptions()) {
+                out.writeInt((int) date.toEpochDay());
+            }
+        }
+    }
+
+    /**
+     * Reads the recurrences section of a version 3 snapshot
+     * @param in the input stream, positioned at the section
+     * @return the recurrences, by record number
+     * @throws IOException thrown if reading fails
+     */
+    static HashMap<Integer, Recurrence> readRecurrences(DataInputStream in) throws IOException {
+        HashMap<Integer, Recurrence> recurrences = new HashMap<>();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int record = in.readInt();
+            int intervalWeeks = in.readInt();
+            int occurrences = in.readInt();
+            LocalDate[] exceptions = new LocalDate[in.readInt()];
+            for (int j = 0; j < exceptions.length; j++) {
+                exceptions[j] = LocalDate.ofEpochDay(in.readInt());
+            }
+            recurrences.put(record, recurrence(intervalWeeks, occurrences, exceptions));
+        }
+        return recurrences;
+    }
+
+    /**
+     * Builds a recurrence read from a snapshot
+     * @return the recurrence
+     * @throws IOException thrown if the interval or count is not valid
+     */
+    static Recurrence recurrence(int intervalWeeks, int count, LocalDate[] exceptions) throws IOException {
+        try {
+            return new Recurrence(intervalWeeks, count, Arrays.asList(exceptions));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt snapshot recurrence: " + e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Writes the event ID index and the per-venue start time indexes
+     */
+    private static void writeIndexes(DataOutputStream out, HashMap<Venue, Integer> venueIds,
+                                     Collection<Event> events) throws IOException {
+        final Event[] records = events.toArray(new Event[events.size()]);
+        Integer[] byId = new Integer[records.length];
+        for (int i = 0; i < records.length; i++) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Integer.compare(records[o1].eventId, records[o2].eventId);
+            }
+        });
+        for (Integer record : byId) {
+            out.writeInt(record);
+        }
+
+        ArrayList<ArrayList<Integer>> byVenue = new ArrayList<>();
+        for (int i = 0; i < venueIds.size(); i++) {
+            byVenue.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < records.length; i++) {
+            Integer venueId = records[i].venue == null ? null : venueIds.get(records[i].venue);
+            if (venueId != null) {
+                byVenue.get(venueId).add(i);
+            }
+        }
+        Comparator<Integer> byStart = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return records[o1].startTime.compareTo(records[o2].startTime);
+            }
+        };
+        int start = 0;
+        for (ArrayList<Integer> run : byVenue) {
+            Collections.sort(run, byStart);
+            out.writeInt(start);
+            start += run.size();
+        }
+        out.writeInt(start);
+        for (ArrayList<Integer> run : byVenue) {
+            for (Integer record : run) {
+                out.writeInt(record);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot into an empty timetable
+     * @param in the input stream, positioned at the magic number
+     * @param timetable the timetable to fill
+     * @throws IOException thrown if reading fails or the data is not a supported snapshot
+     */
+    static void read(DataInputStream in, Timetable timetable) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a timetable snapshot");
+        }
+        short version = in.readShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        // The offsets are only needed for random access, strings are stored in order
+        String[] strings = new String[in.readInt()];
+        in.skipBytes(strings.length * 4 + 4);
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+
+        Venue[] venues = new Venue[in.readInt()];
+        for (int i = 0; i < venues.length; i++) {
+            Venue venue = new Venue(strings[in.readInt()]);
+            int flags = in.readByte();
+            venue.setHasDataProjector((flags & PROJECTOR) != 0);
+            venue.setHasAdjustibleSeating((flags & ADJUSTABLE_SEATING) != 0);
+            venues[i] = venue;
+            timetable.add(venue);
+        }
+
+        HashMap<Integer, Recurrence> recurrences = version >= 3 ? readRecurrences(in)
+                : new HashMap<Integer, Recurrence>();
+
+        int eventCount = in.readInt();
+        ArrayList<Event> events = new ArrayList<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            byte kind = in.readByte();
+            int id = in.readInt();
+            LocalDateTime start = fromEpochMinute(in.readInt());
+            LocalDateTime end = fromEpochMinute(in.readInt());
+            if (!start.isBefore(end)) {
+                throw new IOException("Corrupt snapshot: event " + id + " ends at " + end +
+                        ", which is not after its start at " + start);
+            }
+            int venueId = in.readInt();
+            int flags = in.readByte();
+            int text1 = in.readInt();
+            int text2 = in.readInt();
+            int extra = in.readInt();
+
+            Event event = decode(kind, id, flags, string(strings, text1), string(strings, text2), extra);
+            event.startTime = start;
+            event.endTime = end;
+            event.recurrence = recurrences.get(i);
+            if (venueId >= 0) {
+                event.venue = venues[venueId];
+            }
+            events.add(event);
+        }
+        // Written in display order, so the batch is already sorted
+        timetable.addLoaded(events);
+    }
+
+    /**
+     * Builds a meeting or lecture from the fields of a record. Times and venue are left to the caller
+     * @return the new event
+     * @throws IOException thrown if the record kind is unknown
+     */
+    static Event decode(byte kind, int id, int flags, String text1, String text2, int extra) throws IOException {
+        Event event;
+        if (kind == MEETING) {
+            event = new Meeting(id, text1, text2, extra < 0 ? null : MeetingType.values()[extra]);
+        } else if (kind == LECTURE) {
+            event = new Lecture(id, text1, text2, extra, false);
+        } else {
+            throw new IOException("Unknown event kind " + kind + " for event " + id);
+        }
+        event.markRequired(Facility.DATA_PROJECTOR, (flags & PROJECTOR) != 0);
+        event.markRequired(Facility.ADJUSTABLE_SEATING, (flags & ADJUSTABLE_SEATING) != 0);
+        return event;
+    }
+
+    /**
+     * Converts a date/time into minutes since the epoch
+     * @param dateTime a whole-minute date/time
+     * @return the epoch-minute
+     * @throws IOException thrown if the date/time has seconds or is out of range
+     */
+    static int toEpochMinute(LocalDateTime dateTime) throws IOException {
+        if (dateTime == null || dateTime.getSecond() != 0 || dateTime.getNano() != 0) {
+            throw new IOException("Only whole minute times can be stored in a snapshot: " + dateTime);
+        }
+        long minutes = dateTime.toEpochSecond(ZoneOffset.UTC) / 60;
+        if (minutes < Integer.MIN_VALUE || minutes > Integer.MAX_VALUE) {
+            throw new IOException("Time out of range for a snapshot: " + dateTime);
+        }
+        return (int) minutes;
+    }
+
+    /**
+     * Converts minutes since the epoch back into a date/time
+     * @param epochMinute the epoch-minute
+     * @return the date/time
+     */
+    static LocalDateTime fromEpochMinute(int epochMinute) {
+        return LocalDateTime.ofEpochSecond(epochMinute * 60L, 0, ZoneOffset.UTC);
+    }
+
+    private static void intern(String value, HashMap<String, Integer> ids, ArrayList<String> strings) {
+        if (value != null && !ids.containsKey(value)) {
+            ids.put(value, strings.size());
+            strings.add(value);
+        }
+    }
+
+    private static int stringId(String value, HashMap<String, Integer> ids) {
+        return value == null ? -1 : ids.get(value);
+    }
+
+    private static String string(String[] strings, int id) {
+        return id < 0 ? null : strings[id];
+    }
+}
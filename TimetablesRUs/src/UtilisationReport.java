@@ -0,0 +1,402 @@
+import java.io.Flushable;
+import java.io.IOException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * How much each venue is used over a range of days: the minutes booked compared with the
+ * minutes it is open, by day and by week, the hour of the day it is busiest and the
+ * longest time it stands idle while open. Only bookings inside opening hours count.
+ *
+ * The figures are worked out in one pass over the timetable's EventColumns. The rows are
+ * in start time order, so each venue's bookings arrive in order and its idle gaps can be
+ * measured from where its last booking ended. This is O(events + venues * days), with no
+ * Event objects touched.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class UtilisationReport {
+    /**
+     * Monday to Friday, the usual open days
+     */
+    public static final Set<DayOfWeek> WEEKDAYS = EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY);
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final long NANOS_PER_MINUTE = 60L * 1000 * 1000 * 1000;
+
+    private LocalDate firstDay;
+    private int days;
+    private int opens;
+    private int closes;
+    private Set<DayOfWeek> openDays;
+    private boolean[] open;
+    private Venue[] venues;
+    private HashMap<Venue, Integer> venueIndex;
+    // Booked minutes by venue and day, at venue * days + day
+    private int[] booked;
+    // Booked minutes by venue and hour of the day, at venue * 24 + hour
+    private int[] hourly;
+    private int[] longestGap;
+
+    /**
+     * Works out the utilisation of every venue over the days the timetable covers, from the
+     * Monday of the week of the first event to the day the last one ends
+     * @param timetable the timetable
+     * @param opens the time venues open each open day
+     * @param closes the time venues close
+     * @param openDays the days of the week venues are open
+     * @throws IllegalArgumentException thrown if closes is not after opens
+     */
+    public UtilisationReport(Timetable timetable, LocalTime opens, LocalTime closes, Set<DayOfWeek> openDays)
+            throws IllegalArgumentException {
+        this(timetable.obtainColumns(), null, null, opens, closes, openDays);
+    }
+
+    /**
+     * Works out the utilisation of every venue over a range of days
+     * @param timetable the timetable
+     * @param firstDay the first day
+     * @param lastDay the last day (inclusive)
+     * @param opens the time venues open each open day
+     * @param closes the time venues close
+     * @param openDays the days of the week venues are open
+     * @throws IllegalArgumentException thrown if lastDay is before firstDay or closes is not
+     * after opens
+     */
+    public UtilisationReport(Timetable timetable, LocalDate firstDay, LocalDate lastDay,
+                             LocalTime opens, LocalTime closes, Set<DayOfWeek> openDays)
+            throws IllegalArgumentException {
+        this(timetable.obtainColumns(), firstDay, lastDay, opens, closes, openDays);
+    }
+
+    private UtilisationReport(EventColumns columns, LocalDate firstDay, LocalDate lastDay,
+                              LocalTime opens, LocalTime closes, Set<DayOfWeek> openDays)
+            throws IllegalArgumentException {
+        if (!closes.isAfter(opens)) {
+            throw new IllegalArgumentException("Closing time: " + closes + " must be after opening time: " + opens);
+        }
+        if (firstDay == null) {
+            firstDay = firstDay(columns);
+            lastDay = lastDay(columns, firstDay);
+        }
+        if (lastDay.isBefore(firstDay)) {
+            throw new IllegalArgumentException("Last day: " + lastDay + " must not be before first day: " + firstDay);
+        }
+        this.firstDay = firstDay;
+        this.days = (int) (lastDay.toEpochDay() - firstDay.toEpochDay() + 1);
+        this.opens = opens.toSecondOfDay() / 60;
+        // Rounded up, so that LocalTime.MAX closes at midnight
+        this.closes = (int) ((closes.toNanoOfDay() + NANOS_PER_MINUTE - 1) / NANOS_PER_MINUTE);
+        this.openDays = EnumSet.noneOf(DayOfWeek.class);
+        this.openDays.addAll(openDays);
+        open = new boolean[days];
+        for (int day = 0; day < days; day++) {
+            open[day] = openDays.contains(firstDay.plusDays(day).getDayOfWeek());
+        }
+
+        venues = new Venue[columns.venueIdLimit()];
+        venueIndex = new HashMap<>();
+        for (int v = 0; v < venues.length; v++) {
+            venues[v] = columns.venueById(v);
+            venueIndex.put(venues[v], v);
+        }
+        booked = new int[venues.length * days];
+        hourly = new int[venues.length * 24];
+        longestGap = new int[venues.length];
+        scan(columns);
+    }
+
+    /*
+     * The single pass. covered[v] is where venue v's last booking ended, so the time from
+     * there to the start of its next booking is idle
+     */
+    private void scan(EventColumns columns) {
+        long rangeStart = firstDay.toEpochDay() * MINUTES_PER_DAY;
+        long rangeEnd = rangeStart + (long) days * MINUTES_PER_DAY;
+        long[] covered = new long[venues.length];
+        for (int v = 0; v < venues.length; v++) {
+            covered[v] = rangeStart;
+        }
+        // Events with no start time come first and are skipped
+        int row = columns.firstStartingFrom(LocalDateTime.MIN);
+        for (; row < columns.size() && columns.starts[row] < rangeEnd; row++) {
+            int v = columns.venueIds[row];
+            if (v < 0 || columns.ends[row] == EventColumns.NONE) {
+                continue;
+            }
+            // Rows are in start order, so only an earlier, longer booking can overlap this one
+            long start = Math.max(columns.starts[row], covered[v]);
+            long end = Math.min(columns.ends[row], rangeEnd);
+            if (start >= end) {
+                continue;
+            }
+            idle(v, covered[v], start, rangeStart);
+            book(v, start, end, rangeStart);
+            covered[v] = end;
+        }
+        for (int v = 0; v < venues.length; v++) {
+            idle(v, covered[v], rangeEnd, rangeStart);
+        }
+    }
+
+    /*
+     * Adds the opening hours between two times, day by day, to a venue's booked minutes
+     */
+    private void book(int v, long start, long end, long rangeStart) {
+        for (int day = day(start, rangeStart); day <= day(end - 1, rangeStart); day++) {
+            long dayStart = rangeStart + (long) day * MINUTES_PER_DAY;
+            long from = Math.max(start, dayStart + opens);
+            long to = Math.min(end, dayStart + closes);
+            if (!open[day] || from >= to) {
+                continue;
+            }
+            booked[v * days + day] += (int) (to - from);
+            while (from < to) {
+                int hour = (int) ((from - dayStart) / 60);
+                long hourEnd = Math.min(to, dayStart + (hour + 1) * 60L);
+                hourly[v * 24 + hour] += (int) (hourEnd - from);
+                from = hourEnd;
+            }
+        }
+    }
+
+    /*
+     * Measures the idle opening hours between two times. A venue closing ends a gap, so
+     * each day's share is a gap of its own
+     */
+    private void idle(int v, long start, long end, long rangeStart) {
+        if (start >= end) {
+            return;
+        }
+        for (int day = day(start, rangeStart); day <= day(end - 1, rangeStart); day++) {
+            long dayStart = rangeStart + (long) day * MINUTES_PER_DAY;
+            long from = Math.max(start, dayStart + opens);
+            long to = Math.min(end, dayStart + closes);
+            if (open[day] && to - from > longestGap[v]) {
+                longestGap[v] = (int) (to - from);
+            }
+        }
+    }
+
+    private static int day(long minute, long rangeStart) {
+        return (int) Math.floorDiv(minute - rangeStart, MINUTES_PER_DAY);
+    }
+
+    /*
+     * The Monday of the week of the first event with a time, or today's if there is none
+     */
+    private static LocalDate firstDay(EventColumns columns) {
+        int row = columns.firstStartingFrom(LocalDateTime.MIN);
+        LocalDate first = row < columns.size() ? columns.getStartTime(row).toLocalDate() : LocalDate.now();
+        return first.minusDays(first.getDayOfWeek().getValue() - 1);
+    }
+
+    /*
+     * The day the last event ends, found by a scan as the rows are in start order
+     */
+    private static LocalDate lastDay(EventColumns columns, LocalDate firstDay) {
+        int last = Integer.MIN_VALUE;
+        for (int row = 0; row < columns.size(); row++) {
+            last = Math.max(last, columns.ends[row]);
+        }
+        if (last == EventColumns.NONE) {
+            return firstDay;
+        }
+        LocalDate lastDay = LocalDate.ofEpochDay(Math.floorDiv(last - 1, MINUTES_PER_DAY));
+        return lastDay.isBefore(firstDay) ? firstDay : lastDay;
+    }
+
+    /**
+     * Returns the first day of the report
+     * @return the first day
+     */
+    public LocalDate getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Returns the number of days in the report
+     * @return the number of days
+     */
+    public int getNumberOfDays() {
+        return days;
+    }
+
+    /**
+     * Returns the number of weeks in the report, counting a part week at the end
+     * @return the number of weeks
+     */
+    public int getNumberOfWeeks() {
+        return (days + 6) / 7;
+    }
+
+    /**
+     * Returns the venues in the report
+     * @return every venue the timetable knows, including ones only named by events
+     */
+    public Venue[] getVenues() {
+        return venues.clone();
+    }
+
+    /**
+     * Returns the minutes a venue is open over the whole report
+     * @return the available minutes, which are the same for every venue
+     */
+    public long getAvailableMinutes() {
+        return availableMinutes(0, days);
+    }
+
+    /**
+     * Returns the minutes a venue is booked over the whole report
+     * @param venue the venue
+     * @return the booked minutes within opening hours
+     * @throws IllegalArgumentException thrown if the venue is not in the report
+     */
+    public long getBookedMinutes(Venue venue) throws IllegalArgumentException {
+        return bookedMinutes(index(venue), 0, days);
+    }
+
+    /**
+     * Returns the minutes a venue is booked on a day
+     * @param venue the venue
+     * @param day the day
+     * @return the booked minutes within opening hours, 0 for a day outside the report
+     * @throws IllegalArgumentException thrown if the venue is not in the report
+     */
+    public int getBookedMinutes(Venue venue, LocalDate day) throws IllegalArgumentException {
+        int v = index(venue);
+        long d = day.toEpochDay() - firstDay.toEpochDay();
+        return d < 0 || d >= days ? 0 : booked[v * days + (int) d];
+    }
+
+    /**
+     * Returns the minutes a venue is booked in a week of the report
+     * @param venue the venue
+     * @param week the week, from 0 for the week starting on the first day
+     * @return the booked minutes within opening hours
+     * @throws IllegalArgumentException thrown if the venue is not in the report
+     */
+    public long getBookedMinutesInWeek(Venue venue, int week) throws IllegalArgumentException {
+        return bookedMinutes(index(venue), week * 7, Math.min(days, week * 7 + 7));
+    }
+
+    /**
+     * Returns the minutes a venue is open in a week of the report
+     * @param week the week, from 0 for the week starting on the first day
+     * @return the available minutes
+     */
+    public long getAvailableMinutesInWeek(int week) {
+        return availableMinutes(week * 7, Math.min(days, week * 7 + 7));
+    }
+
+    /**
+     * Returns the fraction of its opening hours that a venue is booked for
+     * @param venue the venue
+     * @return the occupancy from 0 to 1, or 0 if the venue is never open
+     * @throws IllegalArgumentException thrown if the venue is not in the report
+     */
+    public double getOccupancy(Venue venue) throws IllegalArgumentException {
+        long available = getAvailableMinutes();
+        return available == 0 ? 0 : (double) getBookedMinutes(venue) / available;
+    }
+
+    /**
+     * Returns the hour of the day in which a venue is booked for the most minutes
+     * @param venue the venue
+     * @return the hour, from 0 to 23, or -1 if the venue is never booked
+     * @throws IllegalArgumentException thrown if the venue is not in the report
+     */
+    public int getPeakHour(Venue venue) throws IllegalArgumentException {
+        return peakHour(index(venue));
+    }
+
+    /**
+     * Returns the longest time a venue stands idle while open, within one day
+     * @param venue the venue
+     * @return the longest gap in minutes
+     * @throws IllegalArgumentException thrown if the venue is not in the report
+     */
+    public int getLongestIdleGap(Venue venue) throws IllegalArgumentException {
+        return longestGap[index(venue)];
+    }
+
+    /**
+     * Writes the report as text: a line per venue with its booked and available hours,
+     * occupancy, peak hour and longest idle gap, then its occupancy week by week
+     * @param out the sink, for example a buffered Writer
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    public void render(Appendable out) throws IOException {
+        LocalDate lastDay = firstDay.plusDays(days - 1);
+        out.append("Venue utilisation from " + firstDay + " to " + lastDay + ", open " +
+                String.format("%02d:%02d to %02d:%02d", opens / 60, opens % 60, closes / 60, closes % 60) +
+                " on " + openDays);
+        out.append('\n');
+        out.append(String.format("%-20s %10s %12s %10s %10s %12s\n", "venue", "booked h", "available h",
+                "occupancy", "peak hour", "longest gap"));
+        long available = getAvailableMinutes();
+        for (int v = 0; v < venues.length; v++) {
+            long minutes = bookedMinutes(v, 0, days);
+            int peak = peakHour(v);
+            out.append(String.format("%-20s %10.1f %12.1f %9.1f%% %10s %10.1f h\n", venues[v].getName(),
+                    minutes / 60.0, available / 60.0, percent(minutes, available),
+                    peak < 0 ? "-" : String.format("%02d:00", peak), longestGap[v] / 60.0));
+            out.append("  by week:");
+            for (int week = 0; week < getNumberOfWeeks(); week++) {
+                int from = week * 7;
+                int to = Math.min(days, from + 7);
+                out.append(String.format(" %.0f%%", percent(bookedMinutes(v, from, to), availableMinutes(from, to))));
+            }
+            out.append('\n');
+        }
+        out.append('\n');
+        if (out instanceof Flushable) {
+            ((Flushable) out).flush();
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : part * 100.0 / whole;
+    }
+
+    private long bookedMinutes(int v, int fromDay, int toDay) {
+        long minutes = 0;
+        for (int day = fromDay; day < toDay; day++) {
+            minutes += booked[v * days + day];
+        }
+        return minutes;
+    }
+
+    private long availableMinutes(int fromDay, int toDay) {
+        long minutes = 0;
+        for (int day = fromDay; day < toDay; day++) {
+            if (open[day]) {
+                minutes += closes - opens;
+            }
+        }
+        return minutes;
+    }
+
+    private int peakHour(int v) {
+        int peak = -1;
+        for (int hour = 0; hour < 24; hour++) {
+            if (hourly[v * 24 + hour] > 0 && (peak < 0 || hourly[v * 24 + hour] > hourly[v * 24 + peak])) {
+                peak = hour;
+            }
+        }
+        return peak;
+    }
+
+    private int index(Venue venue) throws IllegalArgumentException {
+        Integer v = venueIndex.get(venue);
+        if (v == null) {
+            throw new IllegalArgumentException("Venue: " + (venue == null ? null : venue.getName()) + " is not in the report");
+        }
+        return v;
+    }
+}
@@ -1,13 +1,18 @@
-import java.util.Objects;
+import java.io.IOException;
 /**
  * Represents a venue with a name and possible data projector facilities
  * @author Chris Loftus
  * @version 1 (27th February 2020)
  */
 public class Venue implements Comparable<Venue>{
-    private String name;
-    private boolean hasDataProjector;
-    private boolean hasAdjustibleSeating;
+    // Package access so that the timetable can re-register the venue when it is renamed
+    String name;
+    // The facilities this venue has, one bit per Facility
+    private int facilities;
+    // The ID given by the timetable this venue was last registered with, or -1
+    int id = -1;
+    // The timetable this venue was last registered with, told when its name or facilities change
+    Timetable timetable;
 
     /**
      * Creates an empty venue
@@ -31,11 +36,20 @@ public class Venue implements Comparable<Venue>{
     }
 
     /**
-     * sets the venue name
+     * sets the venue name. A venue in a timetable is registered again under its new name,
+     * and the events booked in it are re-sorted
      * @param name
+     * @throws IllegalArgumentException thrown if the venue is in a timetable that already
+     * has a venue with this name
      */
-    public void setName(String name) {
-        this.name = name;
+    public void setName(String name) throws IllegalArgumentException {
+        if (timetable != null) {
+            if (!timetable.renameVenue(this, name)) {
+                throw new IllegalArgumentException("A venue named " + name + " is already in the timetable");
+            }
+        } else {
+            this.name = name;
+        }
     }
 
     /**
@@ -43,7 +57,7 @@ public class Venue implements Comparable<Venue>{
      * @return hasDataProjector
      */
     public boolean hasDataProjector() {
-        return hasDataProjector;
+        return has(Facility.DATA_PROJECTOR);
     }
 
     /**
@@ -51,7 +65,7 @@ public class Venue implements Comparable<Venue>{
      * @param hasDataProjector true or false
      */
     public void setHasDataProjector(boolean hasDataProjector) {
-        this.hasDataProjector = hasDataProjector;
+        setFacility(Facility.DATA_PROJECTOR, hasDataProjector);
     }
 
     /**
@@ -59,7 +73,7 @@ public class Venue implements Comparable<Venue>{
      * @return true or false
      */
     public boolean HasAdjustableSeating() {
-        return hasAdjustibleSeating;
+        return has(Facility.ADJUSTABLE_SEATING);
     }
 
     /**
@@ -67,7 +81,40 @@ public class Venue implements Comparable<Venue>{
      * @param adjustibleSeating true or false
      */
     public void setHasAdjustibleSeating(boolean adjustibleSeating) {
-        hasAdjustibleSeating = adjustibleSeating;
+        setFacility(Facility.ADJUSTABLE_SEATING, adjustibleSeating);
+    }
+
+    /**
+     * returns whether the venue has a facility
+     * @param facility the facility
+     * @return true or false
+     */
+    public boolean has(Facility facility) {
+        return (facilities & facility.mask()) != 0;
+    }
+
+    /**
+     * sets whether the venue has a facility. The timetable the venue belongs to updates
+     * its index of venues by facility
+     * @param facility the facility
+     * @param present true or false
+     */
+    public void setFacility(Facility facility, boolean present) {
+        int changed = present ? facilities | facility.mask() : facilities & ~facility.mask();
+        if (changed != facilities) {
+            facilities = changed;
+            if (timetable != null) {
+                timetable.facilitiesChanged(this);
+            }
+        }
+    }
+
+    /**
+     * returns the facilities of the venue
+     * @return a bit mask of Facility.mask() values
+     */
+    public int getFacilities() {
+        return facilities;
     }
 
     /**
@@ -89,7 +136,8 @@ public class Venue implements Comparable<Venue>{
      */
     @Override
     public int hashCode() {
-        return Objects.hash(name);
+        // String caches its hash, so this costs nothing after the first call
+        return name == null ? 0 : name.hashCode();
     }
 
     /**
@@ -100,11 +148,23 @@ public class Venue implements Comparable<Venue>{
     public String toString() {
         return "Venue{" +
                 "name='" + name + '\'' +
-                ", hasDataProjector=" + hasDataProjector +
-                ", hasAdjustibleSeating=" + hasAdjustibleSeating +
+                ", hasDataProjector=" + hasDataProjector() +
+                ", hasAdjustibleSeating=" + HasAdjustableSeating() +
                 '}';
     }
 
+    /**
+     * Writes the same information as toString() to a text sink, without building a String
+     * @param out the sink to write to
+     * @throws IOException thrown if the sink cannot be written to
+     */
+    public void appendTo(Appendable out) throws IOException {
+        out.append("Venue{name='").append(name).append('\'');
+        out.append(", hasDataProjector=").append(hasDataProjector() ? "true" : "false");
+        out.append(", hasAdjustibleSeating=").append(HasAdjustableSeating() ? "true" : "false");
+        out.append('}');
+    }
+
     /**
      * compareTo method used when comparing venues
      * @param other
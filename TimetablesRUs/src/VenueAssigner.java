@@ -0,0 +1,220 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Chooses venues for a batch of events that have times but no venue yet.
+ * Events are placed greedily in start time order, which is how interval graphs
+ * are coloured, into the least equipped venue that has the facilities they need and
+ * is free at that time. Keeping the well equipped rooms for the events that need
+ * them leaves more events placeable. Events on different days cannot clash, so each
+ * day is solved on its own thread. A recurring event takes place on many days, so the
+ * recurring events are placed together first, and the days are solved around them.
+ * @author Jamie Gregory
+ * @version 1
+ */
+public class VenueAssigner {
+    private Timetable timetable;
+    private ExecutorService pool;
+    // For each set of requirements met so far, the IDs of the suitable venues, least
+    // equipped first. Filled in before the days are solved, then only read
+    private HashMap<Integer, int[]> candidates;
+
+    /**
+     * Creates an assigner that places events around the bookings already in a timetable,
+     * solving the days on the common fork-join pool
+     * @param timetable the timetable, which must not be changed while assign() runs
+     */
+    public VenueAssigner(Timetable timetable) {
+        this(timetable, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an assigner that places events around the bookings already in a timetable
+     * @param timetable the timetable, which must not be changed while assign() runs
+     * @param pool the pool to solve the days on. It is not shut down, so one pool can
+     *             serve any number of assignments
+     */
+    public VenueAssigner(Timetable timetable, ExecutorService pool) {
+        this.timetable = timetable;
+        this.pool = pool;
+        candidates = new HashMap<>();
+    }
+
+    /**
+     * Assigns a venue to each event and adds it to the timetable
+     * @param events events with start and end times. Any venue they already have is replaced
+     * @return the events that could not be placed, because no suitable venue was free,
+     * they have no times or their ID is already in use
+     */
+    public ArrayList<Event> assign(Collection<Event> events) {
+        ArrayList<Event> unplaced = new ArrayList<>();
+        TreeMap<LocalDate, List<Event>> days = new TreeMap<>();
+        ArrayList<Event> recurring = new ArrayList<>();
+        ArrayList<Event> overnight = new ArrayList<>();
+        for (Event event : events) {
+            if (event.startTime == null || event.endTime == null || event.timetable != null) {
+                unplaced.add(event);
+                continue;
+            }
+            findCandidates(event.requirements);
+            if (event.recurrence != null) {
+                recurring.add(event);
+            } else if (sameDay(event.startTime, event.endTime)) {
+                LocalDate day = event.startTime.toLocalDate();
+                List<Event> dayEvents = days.get(day);
+                if (dayEvents == null) {
+                    dayEvents = new ArrayList<>();
+                    days.put(day, dayEvents);
+                }
+                dayEvents.add(event);
+            } else {
+                overnight.add(event);
+            }
+        }
+
+        // A weekly event on one day can clash with one on another day a week later, in
+        // every later week, so the series cannot be split by day
+        book(recurring, place(recurring), unplaced);
+
+        // Solve the days in parallel against the current bookings. The workers read the
+        // timetable's schedules, so nothing is booked until every day has been solved
+        ArrayList<List<Event>> groups = new ArrayList<>(days.values());
+        ArrayList<Callable<Map<Event, Venue>>> tasks = new ArrayList<>();
+        for (final List<Event> dayEvents : groups) {
+            tasks.add(() -> place(dayEvents));
+        }
+        ArrayList<Map<Event, Venue>> solved = new ArrayList<>();
+        try {
+            for (Future<Map<Event, Venue>> day : pool.invokeAll(tasks)) {
+                solved.add(day.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while assigning venues", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Venue assignment failed", e.getCause());
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            book(groups.get(i), solved.get(i), unplaced);
+        }
+
+        // Events running past midnight could meet events from two days, so place them last
+        book(overnight, place(overnight), unplaced);
+        return unplaced;
+    }
+
+    /*
+     * Places one group of events, returning the venue chosen for each. Events with no
+     * free venue are left out of the result. Events are keyed by identity, as a batch may
+     * repeat an ID
+     */
+    private Map<Event, Venue> place(List<Event> events) {
+        ArrayList<Event> ordered = new ArrayList<>(events);
+        Collections.sort(ordered, new Comparator<Event>() {
+            @Override
+            public int compare(Event o1, Event o2) {
+                int byStart = o1.startTime.compareTo(o2.startTime);
+                return byStart != 0 ? byStart : o2.endTime.compareTo(o1.endTime);
+            }
+        });
+
+        Map<Event, Venue> placed = new IdentityHashMap<>();
+        // This group's bookings, by venue ID
+        Schedule[] booked = new Schedule[timetable.venueIdLimit()];
+        for (Event event : ordered) {
+            Venue venue = findVenue(event, booked);
+            if (venue != null) {
+                placed.put(event, venue);
+                int id = timetable.venueId(venue);
+                if (booked[id] == null) {
+                    booked[id] = new Schedule();
+                }
+                booked[id].book(event);
+            }
+        }
+        return placed;
+    }
+
+    /*
+     * Works out which venues suit a set of requirements, if not already known. The
+     * suitable venues come from the timetable's facility index, and are then ordered by
+     * how many facilities they have and then by ID
+     */
+    private void findCandidates(int requirements) {
+        if (candidates.containsKey(requirements)) {
+            return;
+        }
+        BitSet suitable = timetable.venuesWith(requirements);
+        long[] keys = new long[suitable.cardinality()];
+        int count = 0;
+        for (int id = suitable.nextSetBit(0); id >= 0; id = suitable.nextSetBit(id + 1)) {
+            keys[count++] = (long) Integer.bitCount(timetable.venueById(id).getFacilities()) << 32 | id;
+        }
+        Arrays.sort(keys);
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = (int) keys[i];
+        }
+        candidates.put(requirements, ids);
+    }
+
+    /*
+     * Finds the least equipped suitable venue that is free both in the timetable and
+     * in the bookings made so far for this group
+     */
+    private Venue findVenue(Event event, Schedule[] booked) {
+        for (int id : candidates.get(event.requirements)) {
+            Venue venue = timetable.venueById(id);
+            Schedule schedule = booked[id];
+            if ((schedule == null || schedule.findClash(event.startTime, event.endTime, event.recurrence, null) == null)
+                    && timetable.isVenueFree(venue, event.startTime, event.endTime, event.recurrence)) {
+                return venue;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Books a group of events into the venues chosen for them. Those given no venue are
+     * unplaced
+     */
+    private void book(List<Event> group, Map<Event, Venue> placed, ArrayList<Event> unplaced) {
+        for (Event event : group) {
+            Venue venue = placed.get(event);
+            if (venue == null) {
+                unplaced.add(event);
+            } else {
+                book(event, venue, unplaced);
+            }
+        }
+    }
+
+    private void book(Event event, Venue venue, ArrayList<Event> unplaced) {
+        event.venue = venue;
+        if (!timetable.add(event)) {
+            event.venue = null;
+            unplaced.add(event);
+        }
+    }
+
+    private static boolean sameDay(LocalDateTime start, LocalDateTime end) {
+        LocalDate day = start.toLocalDate();
+        return end.toLocalDate().equals(day) || end.equals(day.plusDays(1).atStartOfDay());
+    }
+}